@@ -0,0 +1,56 @@
+package shapescape.benchmark;
+
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.Model;
+
+/*
+ The full rescan behind Model.getBounds, which runs whenever the extents have gone stale.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class BoundsBenchmark
+{
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int size;
+	
+	private ScanModel model;
+	
+	@Setup
+	public void setup()
+	{
+		model = Models.fill(new ScanModel(), size, 1);
+	}
+	
+	@Benchmark
+	public Rectangle generateBounds()
+	{
+		return model.rescan();
+	}
+	
+	/*generateBounds is protected.*/
+	static class ScanModel extends Model
+	{
+		Rectangle rescan()
+		{
+			return generateBounds();
+		}
+	}
+}
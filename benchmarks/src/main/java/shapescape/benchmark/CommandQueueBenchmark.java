@@ -0,0 +1,86 @@
+package shapescape.benchmark;
+
+import java.awt.Point;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.Model;
+import shapescape.ShapeScape;
+import shapescape.command.CommandQueue;
+import shapescape.command.CreateVertexCommand;
+import shapescape.command.DragCommand;
+
+/*
+ One command executed through the queue and undone again, so the model is back where it
+ started after every invocation. The drag moves every tenth vertex.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class CommandQueueBenchmark
+{
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int size;
+	
+	private ShapeScape modeler;
+	private CommandQueue queue;
+	
+	private int[] dragIds;
+	
+	@Setup
+	public void setup()
+	{
+		Model model = Models.random(size, 1);
+		
+		Models.selectSome(model);
+		
+		modeler = new ShapeScape();
+		modeler.loadScene(model);
+		
+		queue = modeler.getCommandQueue();
+		
+		dragIds = model.getSelectedIds();
+	}
+	
+	@Benchmark
+	public CommandQueue createVertex()
+	{
+		queue.addCommand(new CreateVertexCommand(modeler, new Point(5, 5)));
+		
+		return executeAndUndo();
+	}
+	
+	@Benchmark
+	public CommandQueue drag()
+	{
+		DragCommand drag = new DragCommand(modeler, dragIds);
+		
+		drag.setOffset(3, 4);
+		
+		queue.addCommand(drag);
+		
+		return executeAndUndo();
+	}
+	
+	private CommandQueue executeAndUndo()
+	{
+		queue.executeNextCommand();
+		queue.undoLastCommand();
+		
+		return queue;
+	}
+}
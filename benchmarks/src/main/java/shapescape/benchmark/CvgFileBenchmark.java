@@ -0,0 +1,93 @@
+package shapescape.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.CvgFile;
+import shapescape.Model;
+
+/*
+ Saving and loading .cvg files. load reads the current binary format; loadText reads the
+ same vertices from a version 1 text file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class CvgFileBenchmark
+{
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int size;
+	
+	private Model model;
+	
+	private File binaryFile;
+	private File textFile;
+	private File saveFile;
+	
+	@Setup
+	public void setup() throws IOException
+	{
+		model = Models.random(size, 1);
+		
+		Models.selectSome(model);
+		
+		binaryFile = File.createTempFile("bench", ".cvg");
+		textFile = File.createTempFile("bench", ".cvg");
+		saveFile = File.createTempFile("bench", ".cvg");
+		
+		CvgFile.write(model, binaryFile);
+		
+		try(PrintWriter out = new PrintWriter(textFile, StandardCharsets.US_ASCII))
+		{
+			for(int i = 0; i < model.size(); i++)
+				out.println(model.getX(i) + "," + model.getY(i));
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		binaryFile.delete();
+		textFile.delete();
+		saveFile.delete();
+	}
+	
+	@Benchmark
+	public File save() throws IOException
+	{
+		CvgFile.write(model, saveFile);
+		
+		return saveFile;
+	}
+	
+	@Benchmark
+	public CvgFile load() throws IOException
+	{
+		return CvgFile.read(binaryFile);
+	}
+	
+	@Benchmark
+	public CvgFile loadText() throws IOException
+	{
+		return CvgFile.read(textFile);
+	}
+}
@@ -0,0 +1,88 @@
+package shapescape.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.ShapeScape;
+import shapescape.Vertex;
+
+/*
+ Hit tests against the panel, at points spread over the visible area. getVerticesIn selects
+ a fixed 200 by 200 pixel box, the size of a typical rubber band selection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class HitTestBenchmark
+{
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 800;
+	
+	private static final int POINTS = 1024;
+	
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int size;
+	
+	private ShapeScape modeler;
+	
+	private Point[] points;
+	private Rectangle[] boxes;
+	
+	private int next;
+	
+	@Setup
+	public void setup()
+	{
+		modeler = new ShapeScape();
+		modeler.setSize(WIDTH, HEIGHT);
+		modeler.loadScene(Models.random(size, 1));
+		
+		/*The view is only set up once the panel has been painted.*/
+		Graphics2D g2d = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB).createGraphics();
+		modeler.paint(g2d);
+		g2d.dispose();
+		
+		Random random = new Random(2);
+		
+		points = new Point[POINTS];
+		boxes = new Rectangle[POINTS];
+		
+		for(int i = 0; i < POINTS; i++)
+		{
+			points[i] = new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+			boxes[i] = new Rectangle(random.nextInt(WIDTH-200), random.nextInt(HEIGHT-200), 200, 200);
+		}
+	}
+	
+	@Benchmark
+	public Vertex getVertexAt()
+	{
+		return modeler.getVertexAt(points[next++ & (POINTS-1)]);
+	}
+	
+	@Benchmark
+	public List<Vertex> getVerticesIn()
+	{
+		return modeler.getVerticesIn(boxes[next++ & (POINTS-1)]);
+	}
+}
@@ -0,0 +1,112 @@
+package shapescape.benchmark;
+
+import java.util.Random;
+
+import shapescape.Model;
+
+/*
+ Builds the models the benchmarks run against. Each one is a random walk of short steps kept
+ inside a square centred on the origin, so edges are about as long as in a drawn outline.
+ The square's side grows with the square root of the vertex count, which keeps the density,
+ and with it the work per visible pixel or grid cell, about the same at every size.
+ spiral() builds the case that is quadratic for Douglas-Peucker without path hulls instead.
+ */
+final class Models
+{
+	/*Length of each step of the walk, in model units.*/
+	static final double SPACING = 10;
+	
+	/*Vertices to each turn of spiral().*/
+	private static final int TURN_VERTICES = 64;
+	
+	private Models()
+	{
+	}
+	
+	static Model random(int size, long seed)
+	{
+		return fill(new Model(), size, seed);
+	}
+	
+	static <M extends Model> M fill(M model, int size, long seed)
+	{
+		Random random = new Random(seed);
+		
+		double side = side(size);
+		
+		double[] xs = new double[size];
+		double[] ys = new double[size];
+		
+		double half = side/2;
+		
+		double x = 0;
+		double y = 0;
+		
+		for(int i = 0; i < size; i++)
+		{
+			double angle = random.nextDouble()*2*Math.PI;
+			
+			x = reflect(x + Math.cos(angle)*SPACING, half);
+			y = reflect(y + Math.sin(angle)*SPACING, half);
+			
+			xs[i] = x;
+			ys[i] = y;
+		}
+		
+		model.addVertices(xs, ys, size, 0, 0, null);
+		
+		return model;
+	}
+	
+	/*
+	 An Archimedean spiral winding inwards, TURN_VERTICES vertices to a turn and one SPACING
+	 between turns, ending at the origin.
+	 */
+	static Model spiral(int size)
+	{
+		double[] xs = new double[size];
+		double[] ys = new double[size];
+		
+		for(int i = 0; i < size; i++)
+		{
+			double angle = 2*Math.PI*i/TURN_VERTICES;
+			double radius = SPACING*(size-i)/TURN_VERTICES;
+			
+			xs[i] = Math.cos(angle)*radius;
+			ys[i] = Math.sin(angle)*radius;
+		}
+		
+		Model model = new Model();
+		model.addVertices(xs, ys, size, 0, 0, null);
+		
+		return model;
+	}
+	
+	/*
+	 Selects every tenth vertex, so the renderer has to split paths by selection state.
+	 */
+	static void selectSome(Model model)
+	{
+		for(int i = 0; i < model.size(); i += 10)
+			model.setSelected(i, true);
+	}
+	
+	/*
+	 Folds a coordinate that stepped past +-half back inside.
+	 */
+	private static double reflect(double v, double half)
+	{
+		if(v > half)
+			return 2*half - v;
+		
+		if(v < -half)
+			return -2*half - v;
+		
+		return v;
+	}
+	
+	static double side(int size)
+	{
+		return Math.sqrt(size)*SPACING;
+	}
+}
@@ -0,0 +1,102 @@
+package shapescape.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.Model;
+import shapescape.ShapeScape;
+
+/*
+ ShapeScape.paint into an offscreen image. fullFrame forces the grid and model to be redrawn,
+ the way any edit does; cachedFrame is a cursor move, which only blits the static layer and
+ draws the overlays. Both run with and without tiled rendering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class PaintBenchmark
+{
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 800;
+	
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int size;
+	
+	@Param({"false", "true"})
+	private boolean tiled;
+	
+	private ShapeScape modeler;
+	private Model model;
+	
+	private BufferedImage image;
+	
+	@Setup
+	public void setup()
+	{
+		model = Models.random(size, 1);
+		
+		Models.selectSome(model);
+		
+		modeler = new ShapeScape();
+		modeler.setSize(WIDTH, HEIGHT);
+		modeler.setTiledRendering(tiled);
+		modeler.loadScene(model);
+		
+		image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		
+		paint();
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		image.flush();
+	}
+	
+	@Benchmark
+	public BufferedImage fullFrame()
+	{
+		/*A no-op move still counts as a modification, which is all the static layer looks at.*/
+		model.translate(0, 0);
+		
+		return paint();
+	}
+	
+	@Benchmark
+	public BufferedImage cachedFrame()
+	{
+		return paint();
+	}
+	
+	private BufferedImage paint()
+	{
+		Graphics2D g2d = image.createGraphics();
+		
+		try
+		{
+			modeler.paint(g2d);
+		} finally
+		{
+			g2d.dispose();
+		}
+		
+		return image;
+	}
+}
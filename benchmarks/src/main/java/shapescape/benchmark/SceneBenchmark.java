@@ -0,0 +1,146 @@
+package shapescape.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.Model;
+import shapescape.ShapeScape;
+import shapescape.Vertex;
+
+/*
+ A scene of many small shapes laid out on a square, of which the panel shows only the
+ middle. fullFrame edits one shape and redraws the static layer; the hit tests are the same
+ as in HitTestBenchmark. All three should depend on what is visible much more than on how
+ many shapes there are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class SceneBenchmark
+{
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 800;
+	
+	private static final int POINTS = 1024;
+	
+	private static final int SHAPE_SIZE = 200;
+	
+	/*Distance between the centres of neighbouring shapes, in scene units.*/
+	private static final int PITCH = 300;
+	
+	@Param({"100", "1000", "10000", "100000"})
+	private int models;
+	
+	private ShapeScape modeler;
+	
+	private Model edited;
+	
+	private BufferedImage image;
+	
+	private Point[] points;
+	private Rectangle[] boxes;
+	
+	private int next;
+	
+	@Setup
+	public void setup()
+	{
+		modeler = new ShapeScape();
+		modeler.setSize(WIDTH, HEIGHT);
+		
+		int columns = (int)Math.ceil(Math.sqrt(models));
+		
+		for(int i = 0; i < models; i++)
+		{
+			Model model = Models.random(SHAPE_SIZE, i);
+			
+			model.translate((i % columns - columns/2)*PITCH, (i / columns - columns/2)*PITCH);
+			
+			if(i == 0)
+				modeler.loadScene(model);
+			else
+				modeler.addModel(model);
+			
+			if(i == columns/2*(columns+1))
+				edited = model;
+		}
+		
+		image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		
+		/*The view is only set up once the panel has been painted.*/
+		paint();
+		
+		Random random = new Random(2);
+		
+		points = new Point[POINTS];
+		boxes = new Rectangle[POINTS];
+		
+		for(int i = 0; i < POINTS; i++)
+		{
+			points[i] = new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+			boxes[i] = new Rectangle(random.nextInt(WIDTH-200), random.nextInt(HEIGHT-200), 200, 200);
+		}
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		image.flush();
+	}
+	
+	@Benchmark
+	public BufferedImage fullFrame()
+	{
+		edited.translate(0, 0);
+		
+		return paint();
+	}
+	
+	@Benchmark
+	public Vertex getVertexAt()
+	{
+		return modeler.getVertexAt(points[next++ & (POINTS-1)]);
+	}
+	
+	@Benchmark
+	public List<Vertex> getVerticesIn()
+	{
+		return modeler.getVerticesIn(boxes[next++ & (POINTS-1)]);
+	}
+	
+	private BufferedImage paint()
+	{
+		Graphics2D g2d = image.createGraphics();
+		
+		try
+		{
+			modeler.paint(g2d);
+		} finally
+		{
+			g2d.dispose();
+		}
+		
+		return image;
+	}
+}
@@ -0,0 +1,75 @@
+package shapescape.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.LevelOfDetail;
+import shapescape.Model;
+import shapescape.Simplifier;
+import shapescape.command.SimplifyCommand;
+
+/*
+ Ranking every vertex with each simplification method, building the levels of detail drawn
+ when zoomed out, and building a model simplified to a tolerance of one step of the walk, which
+ drops about three quarters of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class SimplifyBenchmark
+{
+	@Param({"10000", "100000", "1000000"})
+	private int size;
+	
+	private Model model;
+	
+	private double[] xs;
+	private double[] ys;
+	
+	@Setup
+	public void setup()
+	{
+		model = Models.random(size, 1);
+		
+		xs = model.copyXs();
+		ys = model.copyYs();
+	}
+	
+	@Benchmark
+	public double[] douglasPeucker()
+	{
+		return Simplifier.douglasPeucker(xs, ys, size, null);
+	}
+	
+	@Benchmark
+	public double[] visvalingamWhyatt()
+	{
+		return Simplifier.visvalingamWhyatt(xs, ys, size, null);
+	}
+	
+	@Benchmark
+	public LevelOfDetail levelOfDetail()
+	{
+		return LevelOfDetail.build(xs, ys, size, null);
+	}
+	
+	@Benchmark
+	public Model simplify()
+	{
+		return SimplifyCommand.simplify(model, Simplifier.DOUGLAS_PEUCKER, Models.SPACING, null);
+	}
+}
@@ -0,0 +1,59 @@
+package shapescape.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.Model;
+import shapescape.Simplifier;
+
+/*
+ Ranking the vertices of an inward spiral, where the vertex furthest from each span's line lies
+ next to one of its ends, so every split peels off a single vertex. Scanning each span would
+ make that quadratic; with path hulls it should grow like n log n, as on a random walk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class SimplifySpiralBenchmark
+{
+	@Param({"100000", "1000000", "10000000"})
+	private int size;
+	
+	private double[] xs;
+	private double[] ys;
+	
+	@Setup
+	public void setup()
+	{
+		Model model = Models.spiral(size);
+		
+		xs = model.copyXs();
+		ys = model.copyYs();
+	}
+	
+	@Benchmark
+	public double[] douglasPeucker()
+	{
+		return Simplifier.douglasPeucker(xs, ys, size, null);
+	}
+	
+	@Benchmark
+	public double[] visvalingamWhyatt()
+	{
+		return Simplifier.visvalingamWhyatt(xs, ys, size, null);
+	}
+}
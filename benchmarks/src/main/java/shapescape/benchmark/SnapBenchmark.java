@@ -0,0 +1,90 @@
+package shapescape.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.ShapeScape;
+
+/*
+ Cursor updates with snapping on, as done on every mouse move, at points spread over the
+ visible area. The whole model is in view, so at the larger sizes the snap radius covers many
+ grid cells in model space.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class SnapBenchmark
+{
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 800;
+	
+	private static final int POINTS = 1024;
+	
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int size;
+	
+	private ShapeScape modeler;
+	
+	private MouseEvent[] moves;
+	
+	private int next;
+	
+	@Setup
+	public void setup()
+	{
+		modeler = new ShapeScape();
+		modeler.setSize(WIDTH, HEIGHT);
+		modeler.loadScene(Models.random(size, 1));
+		
+		/*The view is only set up once the panel has been painted.*/
+		Graphics2D g2d = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB).createGraphics();
+		modeler.paint(g2d);
+		g2d.dispose();
+		
+		/*Builds the edge grid, which happens on the first snap.*/
+		modeler.getModel().getEdgeGrid();
+		
+		Random random = new Random(2);
+		
+		moves = new MouseEvent[POINTS];
+		
+		for(int i = 0; i < POINTS; i++)
+			moves[i] = new MouseEvent(modeler, MouseEvent.MOUSE_MOVED, 0, 0, random.nextInt(WIDTH), random.nextInt(HEIGHT), 0, false);
+	}
+	
+	@Benchmark
+	public void snapToVertices()
+	{
+		modeler.setSnapToVertices(true);
+		modeler.setSnapToEdges(false);
+		
+		modeler.updateCursor(moves[next++ & (POINTS-1)]);
+	}
+	
+	@Benchmark
+	public void snapToEdges()
+	{
+		modeler.setSnapToVertices(false);
+		modeler.setSnapToEdges(true);
+		
+		modeler.updateCursor(moves[next++ & (POINTS-1)]);
+	}
+}
@@ -0,0 +1,61 @@
+package shapescape.benchmark;
+
+import java.awt.geom.AffineTransform;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import shapescape.Model;
+
+/*
+ Model.transform, which moves every vertex and then rebuilds the grid and extents, and
+ transformRange on its own. A rotation is used so coordinates stay in range however many
+ times it is applied.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class TransformBenchmark
+{
+	@Param({"1000", "10000", "100000", "1000000"})
+	private int size;
+	
+	private Model model;
+	
+	private AffineTransform rotation;
+	
+	@Setup
+	public void setup()
+	{
+		model = Models.random(size, 1);
+		
+		rotation = AffineTransform.getRotateInstance(0.01);
+	}
+	
+	@Benchmark
+	public Model transform()
+	{
+		model.transform(rotation);
+		
+		return model;
+	}
+	
+	@Benchmark
+	public double[] transformRange()
+	{
+		return model.transformRange(rotation, 0, model.size());
+	}
+}
@@ -0,0 +1,372 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ Uniform grid over model space whose cells list some of a model's slots. Only occupied cells
+ are stored, keyed by their packed coordinates.
+
+ nearest() searches the cells around a point ring by ring, and stops once no ring further out
+ can hold anything closer than what it has found. Its cost follows how crowded the
+ neighbourhood of the point is rather than the size of the model. Wide searches, such as when
+ the view is zoomed far out, go ring by ring over blocks of BLOCK_SIZE by BLOCK_SIZE cells
+ instead, each listing its occupied cells, so empty stretches are passed over a block at a time.
+ */
+abstract class CellGrid
+{
+	private static final int BLOCK_SHIFT = 4;
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	
+	protected Model model;
+	
+	protected double cellSize;
+	
+	private Map<Long, IntList> cells;
+	
+	/*The occupied cells of each block, by their position within it.*/
+	private Map<Long, IntList> blocks;
+	
+	/*The point being searched for, and the linear part of the metric distances are measured in.*/
+	protected double queryX, queryY;
+	
+	protected double m00, m01, m10, m11;
+	
+	private int best;
+	
+	private double bestDistanceSq;
+	
+	/*How far the metric shrinks model space distances at most, for ruling out far cells.*/
+	private double scale;
+	
+	protected CellGrid(Model model, double cellSize)
+	{
+		this.model = model;
+		this.cellSize = cellSize;
+		
+		cells = new HashMap<Long, IntList>();
+		blocks = new HashMap<Long, IntList>();
+	}
+	
+	void setModel(Model model)
+	{
+		this.model = model;
+	}
+	
+	public double getCellSize()
+	{
+		return cellSize;
+	}
+	
+	/*
+	 Changes the size of the cells, emptying the grid. rebuild() fills it again.
+	 */
+	void setCellSize(double cellSize)
+	{
+		this.cellSize = cellSize;
+		
+		clear();
+	}
+	
+	public void clear()
+	{
+		cells.clear();
+		blocks.clear();
+	}
+	
+	protected void addToCell(int cx, int cy, int value)
+	{
+		long key = cellKey(cx, cy);
+		
+		IntList cell = cells.get(key);
+		
+		if(cell == null)
+		{
+			cell = new IntList(4);
+			cells.put(key, cell);
+			
+			long blockKey = cellKey(cx >> BLOCK_SHIFT, cy >> BLOCK_SHIFT);
+			
+			IntList block = blocks.get(blockKey);
+			
+			if(block == null)
+			{
+				block = new IntList(4);
+				blocks.put(blockKey, block);
+			}
+			
+			block.add(blockIndex(cx, cy));
+		}
+		
+		cell.add(value);
+	}
+	
+	protected void removeFromCell(int cx, int cy, int value)
+	{
+		long key = cellKey(cx, cy);
+		
+		IntList cell = cells.get(key);
+		
+		if(cell == null || !cell.removeValue(value))
+			return;
+		
+		if(cell.isEmpty())
+		{
+			cells.remove(key);
+			
+			long blockKey = cellKey(cx >> BLOCK_SHIFT, cy >> BLOCK_SHIFT);
+			
+			IntList block = blocks.get(blockKey);
+			
+			block.removeValue(blockIndex(cx, cy));
+			
+			if(block.isEmpty())
+				blocks.remove(blockKey);
+		}
+	}
+	
+	protected IntList getCell(int cx, int cy)
+	{
+		return cells.get(cellKey(cx, cy));
+	}
+	
+	/*
+	 Adds every occupied cell touching area to result.
+	 */
+	protected void getCells(Rectangle2D area, List<IntList> result)
+	{
+		int minX = cellOf(area.getMinX());
+		int maxX = cellOf(area.getMaxX());
+		int minY = cellOf(area.getMinY());
+		int maxY = cellOf(area.getMaxY());
+		
+		long span = ((long)maxX - minX + 1) * ((long)maxY - minY + 1);
+		
+		/*
+		 When the area covers more cells than are occupied, walking the occupied cells is cheaper.
+		 */
+		if(span > cells.size())
+		{
+			for(Map.Entry<Long, IntList> cell : cells.entrySet())
+			{
+				int cx = (int)(cell.getKey() >> 32);
+				int cy = (int)(long)cell.getKey();
+				
+				if(cx >= minX && cx <= maxX && cy >= minY && cy <= maxY)
+					result.add(cell.getValue());
+			}
+		}
+		else
+		{
+			for(int cx = minX; cx <= maxX; cx++)
+			{
+				for(int cy = minY; cy <= maxY; cy++)
+				{
+					IntList cell = getCell(cx, cy);
+					
+					if(cell != null)
+						result.add(cell);
+				}
+			}
+		}
+	}
+	
+	/*
+	 Returns the value nearest to (x, y) as measured by distanceSq, or -1 if there is none within
+	 maxDistance. Offsets from (x, y) are measured after mapping them through the linear part of
+	 metric, so passing the transform from the model to the screen gives distances in pixels.
+	 */
+	protected int nearest(double x, double y, AffineTransform metric, double maxDistance)
+	{
+		queryX = x;
+		queryY = y;
+		
+		m00 = metric.getScaleX();
+		m01 = metric.getShearX();
+		m10 = metric.getShearY();
+		m11 = metric.getScaleY();
+		
+		best = -1;
+		bestDistanceSq = maxDistance*maxDistance;
+		
+		scale = ModelRenderer.getMinimumScale(metric);
+		
+		if(!(scale > 0) || cells.isEmpty())
+			return -1;
+		
+		int cx = cellOf(x);
+		int cy = cellOf(y);
+		
+		double reach = Math.ceil(maxDistance/scale/cellSize);
+		
+		if(reach <= BLOCK_SIZE)
+		{
+			for(int ring = 0; ring <= reach && !outOfReach(ring, cellSize); ring++)
+			{
+				if(ring == 0)
+				{
+					considerCell(cx, cy);
+					continue;
+				}
+				
+				for(int i = -ring; i <= ring; i++)
+				{
+					considerCell(cx+i, cy-ring);
+					considerCell(cx+i, cy+ring);
+				}
+				
+				for(int i = -ring+1; i < ring; i++)
+				{
+					considerCell(cx-ring, cy+i);
+					considerCell(cx+ring, cy+i);
+				}
+			}
+			
+			return best;
+		}
+		
+		int bx = cx >> BLOCK_SHIFT;
+		int by = cy >> BLOCK_SHIFT;
+		
+		double blockSize = cellSize*BLOCK_SIZE;
+		
+		reach = Math.ceil(maxDistance/scale/blockSize);
+		
+		/*Past a point, walking the occupied blocks is cheaper than looking for them, starting nearby.*/
+		if((2*reach+1)*(2*reach+1) > blocks.size())
+		{
+			considerBlock(bx, by);
+			
+			for(Map.Entry<Long, IntList> block : blocks.entrySet())
+				considerBlock((int)(block.getKey() >> 32), (int)(long)block.getKey(), block.getValue());
+			
+			return best;
+		}
+		
+		for(int ring = 0; ring <= reach && !outOfReach(ring, blockSize); ring++)
+		{
+			if(ring == 0)
+			{
+				considerBlock(bx, by);
+				continue;
+			}
+			
+			for(int i = -ring; i <= ring; i++)
+			{
+				considerBlock(bx+i, by-ring);
+				considerBlock(bx+i, by+ring);
+			}
+			
+			for(int i = -ring+1; i < ring; i++)
+			{
+				considerBlock(bx-ring, by+i);
+				considerBlock(bx+ring, by+i);
+			}
+		}
+		
+		return best;
+	}
+	
+	/*
+	 Squared distance from the point being searched for to a value, or infinity to pass over it.
+	 */
+	protected abstract double distanceSq(int value);
+	
+	/*
+	 Squared length of a model space offset under the metric.
+	 */
+	protected double measure(double dx, double dy)
+	{
+		double mx = m00*dx + m01*dy;
+		double my = m10*dx + m11*dy;
+		
+		return mx*mx + my*my;
+	}
+	
+	/*
+	 Whether everything in the given ring of cells or blocks around the point lies further away
+	 than the best found so far, being at least ring-1 whole steps out.
+	 */
+	private boolean outOfReach(int ring, double step)
+	{
+		double gap = (ring-1)*step*scale;
+		
+		return ring > 1 && gap*gap > bestDistanceSq;
+	}
+	
+	/*
+	 Whether everything inside the square lies further away than the best found so far.
+	 */
+	private boolean outOfReach(double minX, double minY, double size)
+	{
+		double dx = Math.max(0, Math.max(minX-queryX, queryX-(minX+size)))*scale;
+		double dy = Math.max(0, Math.max(minY-queryY, queryY-(minY+size)))*scale;
+		
+		return dx*dx + dy*dy > bestDistanceSq;
+	}
+	
+	private void considerBlock(int bx, int by)
+	{
+		IntList block = blocks.get(cellKey(bx, by));
+		
+		if(block != null)
+			considerBlock(bx, by, block);
+	}
+	
+	private void considerBlock(int bx, int by, IntList block)
+	{
+		double blockSize = cellSize*BLOCK_SIZE;
+		
+		if(outOfReach(bx*blockSize, by*blockSize, blockSize))
+			return;
+		
+		for(int i = 0; i < block.size(); i++)
+		{
+			int index = block.get(i);
+			
+			considerCell((bx << BLOCK_SHIFT) + (index >> BLOCK_SHIFT), (by << BLOCK_SHIFT) + (index & (BLOCK_SIZE-1)));
+		}
+	}
+	
+	private void considerCell(int cx, int cy)
+	{
+		if(outOfReach(cx*cellSize, cy*cellSize, cellSize))
+			return;
+		
+		IntList cell = cells.get(cellKey(cx, cy));
+		
+		if(cell == null)
+			return;
+		
+		for(int i = 0; i < cell.size(); i++)
+		{
+			int value = cell.get(i);
+			
+			double distanceSq = distanceSq(value);
+			
+			if(distanceSq < bestDistanceSq || (distanceSq == bestDistanceSq && value < best))
+			{
+				best = value;
+				bestDistanceSq = distanceSq;
+			}
+		}
+	}
+	
+	protected int cellOf(double coord)
+	{
+		return (int)Math.floor(coord / cellSize);
+	}
+	
+	private static int blockIndex(int cx, int cy)
+	{
+		return ((cx & (BLOCK_SIZE-1)) << BLOCK_SHIFT) | (cy & (BLOCK_SIZE-1));
+	}
+	
+	private static long cellKey(int cx, int cy)
+	{
+		return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,11 @@
+package shapescape;
+
+/*
+ Receives the vertices of a file in order, a chunk at a time, as they are read. Each chunk is a
+ CvgFile of its own, which is handed over to the listener. Like ProgressListener, implementations
+ may throw an unchecked exception to abort the read.
+ */
+public interface ChunkListener
+{
+	public void chunk(CvgFile chunk);
+}
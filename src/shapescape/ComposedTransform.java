@@ -0,0 +1,124 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+
+/*
+ The product of up to three transforms, together with its inverse. Both are only recomputed
+ when one of the parts differs from the copy taken the last time they were composed, so
+ repeated mapping through an unchanged view costs no allocation and no inversion.
+ A null part stands for the identity.
+ */
+public class ComposedTransform
+{
+	private AffineTransform outer = new AffineTransform();
+	private AffineTransform middle = new AffineTransform();
+	private AffineTransform inner = new AffineTransform();
+	
+	private AffineTransform forward = new AffineTransform();
+	private AffineTransform inverse = new AffineTransform();
+	
+	private boolean invertible = true;
+	
+	private boolean composed = false;
+	
+	/*
+	 Makes this the product of outer, middle and inner (applied in that order, as with concatenate), recomposing only if a part has changed.
+	 */
+	public ComposedTransform update(AffineTransform outer, AffineTransform middle, AffineTransform inner)
+	{
+		if(composed && matches(this.outer, outer) && matches(this.middle, middle) && matches(this.inner, inner))
+			return this;
+		
+		copy(this.outer, outer);
+		copy(this.middle, middle);
+		copy(this.inner, inner);
+		
+		forward.setTransform(this.outer);
+		forward.concatenate(this.middle);
+		forward.concatenate(this.inner);
+		
+		try
+		{
+			inverse.setTransform(forward);
+			inverse.invert();
+			
+			invertible = true;
+		} catch (NoninvertibleTransformException e)
+		{
+			inverse.setToIdentity();
+			
+			invertible = false;
+		}
+		
+		composed = true;
+		
+		return this;
+	}
+	
+	public AffineTransform getForward()
+	{
+		return forward;
+	}
+	
+	/*
+	 Returns the inverse, or null if the composed transform cannot be inverted.
+	 */
+	public AffineTransform getInverse()
+	{
+		return invertible ? inverse : null;
+	}
+	
+	public boolean isInvertible()
+	{
+		return invertible;
+	}
+	
+	public Point2D transform(Point2D src, Point2D dst)
+	{
+		return forward.transform(src, dst);
+	}
+	
+	public void transform(double[] src, int srcOffset, double[] dst, int dstOffset, int count)
+	{
+		forward.transform(src, srcOffset, dst, dstOffset, count);
+	}
+	
+	/*
+	 Maps src back through the inverse into dst. Returns false, leaving dst untouched,
+	 if the composed transform cannot be inverted.
+	 */
+	public boolean inverseTransform(Point2D src, Point2D dst)
+	{
+		if(!invertible)
+			return false;
+		
+		inverse.transform(src, dst);
+		
+		return true;
+	}
+	
+	public boolean inverseTransform(double[] src, int srcOffset, double[] dst, int dstOffset, int count)
+	{
+		if(!invertible)
+			return false;
+		
+		inverse.transform(src, srcOffset, dst, dstOffset, count);
+		
+		return true;
+	}
+	
+	private static boolean matches(AffineTransform cached, AffineTransform part)
+	{
+		return part == null ? cached.isIdentity() : cached.equals(part);
+	}
+	
+	private static void copy(AffineTransform cached, AffineTransform part)
+	{
+		if(part == null)
+			cached.setToIdentity();
+		else
+			cached.setTransform(part);
+	}
+}
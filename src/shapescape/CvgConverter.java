@@ -0,0 +1,280 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/*
+ Renders .cvg files to PNG images without a display. Every file is converted as its own task,
+ and the tasks run on a pool with one thread per core.
+
+   java -cp shapescape.jar shapescape.CvgConverter [options] <file or directory>...
+
+ Directories are converted file by file, for every .cvg directly inside them.
+ */
+public class CvgConverter
+{
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: CvgConverter [options] <file or directory>...",
+			"  -o, --output <dir>     where the images are written (default: next to each file)",
+			"  -w, --width <pixels>   image width (default: 1024)",
+			"  -h, --height <pixels>  image height (default: 1024)",
+			"  --fit / --no-fit       scale each scene to fill the image (default: fit)",
+			"  --margin <pixels>      space left around a fitted scene (default: 16)",
+			"  --grid / --no-grid     draw the background grid (default: no grid)",
+			"  --grid-size <units>    grid spacing in model units (default: 30)",
+			"  --bounds               draw each model's bounding box",
+			"  --threads <count>      number of files converted at once (default: one per core)");
+	
+	private int width = 1024;
+	private int height = 1024;
+	
+	private boolean fit = true;
+	private int margin = 16;
+	
+	private boolean grid = false;
+	private int gridSize = 30;
+	
+	private boolean bounds = false;
+	
+	private File outputDir;
+	
+	private int threads = Runtime.getRuntime().availableProcessors();
+	
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+		
+		CvgConverter converter = new CvgConverter();
+		
+		List<File> inputs;
+		
+		try
+		{
+			inputs = converter.parse(args);
+		} catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		
+		int failed = converter.convertAll(inputs);
+		
+		System.exit(failed == 0 ? 0 : 1);
+	}
+	
+	private List<File> parse(String[] args)
+	{
+		List<File> inputs = new ArrayList<File>();
+		
+		for(int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			
+			switch(arg)
+			{
+				case "-o":
+				case "--output":
+					outputDir = new File(value(args, ++i, arg));
+					break;
+				case "-w":
+				case "--width":
+					width = positive(args, ++i, arg);
+					break;
+				case "-h":
+				case "--height":
+					height = positive(args, ++i, arg);
+					break;
+				case "--fit":
+					fit = true;
+					break;
+				case "--no-fit":
+					fit = false;
+					break;
+				case "--margin":
+					margin = number(args, ++i, arg, 0);
+					break;
+				case "--grid":
+					grid = true;
+					break;
+				case "--no-grid":
+					grid = false;
+					break;
+				case "--grid-size":
+					gridSize = positive(args, ++i, arg);
+					break;
+				case "--bounds":
+					bounds = true;
+					break;
+				case "--threads":
+					threads = positive(args, ++i, arg);
+					break;
+				default:
+					if(arg.startsWith("-"))
+						throw new IllegalArgumentException("Unknown option " + arg);
+					
+					collect(new File(arg), inputs);
+			}
+		}
+		
+		if(inputs.isEmpty())
+			throw new IllegalArgumentException("No .cvg files given");
+		
+		return inputs;
+	}
+	
+	private static String value(String[] args, int i, String option)
+	{
+		if(i >= args.length)
+			throw new IllegalArgumentException(option + " needs a value");
+		
+		return args[i];
+	}
+	
+	private static int positive(String[] args, int i, String option)
+	{
+		return number(args, i, option, 1);
+	}
+	
+	private static int number(String[] args, int i, String option, int min)
+	{
+		String value = value(args, i, option);
+		
+		try
+		{
+			int n = Integer.parseInt(value);
+			
+			if(n >= min)
+				return n;
+		} catch (NumberFormatException e)
+		{
+		}
+		
+		throw new IllegalArgumentException(option + " must be a number of at least " + min + ", not " + value);
+	}
+	
+	private static void collect(File input, List<File> inputs)
+	{
+		if(input.isDirectory())
+		{
+			File[] files = input.listFiles((dir, name) -> name.toLowerCase().endsWith(".cvg"));
+			
+			if(files != null)
+			{
+				for(File file : files)
+				{
+					if(file.isFile())
+						inputs.add(file);
+				}
+			}
+		}
+		else if(input.isFile())
+			inputs.add(input);
+		else
+			throw new IllegalArgumentException("No such file or directory: " + input);
+	}
+	
+	/*
+	 Converts every input and returns how many of them failed.
+	 */
+	private int convertAll(List<File> inputs)
+	{
+		if(outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs())
+		{
+			System.err.println("Cannot create " + outputDir);
+			return inputs.size();
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputs.size()));
+		
+		List<Future<File>> results = new ArrayList<Future<File>>();
+		
+		for(File input : inputs)
+			results.add(pool.submit(() -> convert(input)));
+		
+		pool.shutdown();
+		
+		int failed = 0;
+		
+		for(int i = 0; i < inputs.size(); i++)
+		{
+			try
+			{
+				System.out.println(inputs.get(i) + " -> " + results.get(i).get());
+			} catch (ExecutionException e)
+			{
+				failed++;
+				
+				Throwable cause = e.getCause();
+				
+				System.err.println(inputs.get(i) + ": " + (cause.getMessage() != null ? cause.getMessage() : cause.toString()));
+			} catch (InterruptedException e)
+			{
+				pool.shutdownNow();
+				
+				Thread.currentThread().interrupt();
+				
+				return inputs.size()-i;
+			}
+		}
+		
+		return failed;
+	}
+	
+	private File convert(File input) throws IOException
+	{
+		Scene scene = null;
+		
+		for(CvgFile contents : CvgFile.readScene(input, null))
+		{
+			Model model = new Model();
+			model.getTransform().setTransform(contents.getTransform());
+			model.addVertices(contents.getXs(), contents.getYs(), contents.size(), 0, 0, contents.getSelected());
+			
+			if(scene == null)
+				scene = new Scene(model);
+			else
+				scene.add(model);
+		}
+		
+		/*A file without models renders as an empty scene, the way the modeler would show it.*/
+		if(scene == null)
+			scene = new Scene();
+		
+		AffineTransform view = fit ? SceneRenderer.fitView(scene, width, height, margin) : SceneRenderer.centerView(width, height);
+		
+		/*Renderers cache paths between frames, so each task gets its own.*/
+		SceneRenderer renderer = new SceneRenderer();
+		
+		renderer.setShowGrid(grid);
+		renderer.setGridSize(gridSize);
+		renderer.setShowBounds(bounds);
+		
+		BufferedImage image = renderer.render(scene, view, width, height);
+		
+		File output = new File(outputDir != null ? outputDir : input.getAbsoluteFile().getParentFile(), toPngName(input.getName()));
+		
+		if(!ImageIO.write(image, "png", output))
+			throw new IOException("No PNG writer available");
+		
+		return output;
+	}
+	
+	private static String toPngName(String name)
+	{
+		int dot = name.lastIndexOf('.');
+		
+		return (dot > 0 ? name.substring(0, dot) : name) + ".png";
+	}
+}
@@ -0,0 +1,777 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import shapescape.profiling.FileEvent;
+
+/*
+ Reads and writes .cvg files.
+
+ Version 2 is a little-endian binary layout, accessed through memory-mapped channels:
+
+   header   magic "CVG2", int version, int flags, int reserved, long vertex count,
+            double minX, minY, maxX, maxY of the vertices
+   x column vertex count doubles
+   y column vertex count doubles
+   selection (vertex count + 63)/64 longs, present when FLAG_SELECTION is set
+
+ Version 3 holds a whole scene, every model in drawing order, with the same magic:
+
+   header   magic "CVG2", int version, int flags, int model count, long vertex count,
+            double minX, minY, maxX, maxY of the scene
+   then for each model
+   header   long vertex count, int flags, int reserved, double[6] transform matrix,
+            double minX, minY, maxX, maxY of its vertices
+   columns  x, y and selection as in version 2; FLAG_ACTIVE marks the active model
+
+ Version 1 files are plain text, one "x,y" line per vertex. They are detected by the
+ missing magic and can still be read, but are no longer written.
+ */
+public class CvgFile
+{
+	public static final int MAGIC = 0x32475643; // "CVG2" read little-endian
+	public static final int VERSION = 2;
+	public static final int SCENE_VERSION = 3;
+	
+	public static final int FLAG_SELECTION = 1;
+	public static final int FLAG_ACTIVE = 2;
+	
+	public static final int HEADER_SIZE = 56;
+	public static final int MODEL_HEADER_SIZE = 96;
+	
+	/*Columns are mapped in windows of at most this many doubles; progress is reported per window.*/
+	private static final int WINDOW = 1 << 20;
+	
+	/*Text files report progress every this many lines.*/
+	private static final int TEXT_PROGRESS_LINES = 1 << 16;
+	
+	private double[] xs;
+	private double[] ys;
+	
+	private BitSet selected;
+	
+	private int size;
+	
+	private int version;
+	
+	/*The extents recorded in the header, or null if the file has none.*/
+	private double[] extents;
+	
+	/*Which of the file's models the vertices belong to, and how that model is placed.*/
+	private int model;
+	
+	private boolean active;
+	
+	private double[] transform;
+	
+	private CvgFile(double[] xs, double[] ys, BitSet selected, int size, int version)
+	{
+		this.xs = xs;
+		this.ys = ys;
+		this.selected = selected;
+		this.size = size;
+		this.version = version;
+	}
+	
+	public double[] getXs()
+	{
+		return xs;
+	}
+	
+	public double[] getYs()
+	{
+		return ys;
+	}
+	
+	public BitSet getSelected()
+	{
+		return selected;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/*
+	 The extents of the vertices as {minX, minY, maxX, maxY}, as recorded when the file was
+	 written, or null for text files, which don't record them. Files written before the extents
+	 were recorded exactly hold coordinates relative to their minimum, and extents to match.
+	 */
+	public double[] getExtents()
+	{
+		return extents;
+	}
+	
+	/*
+	 The index of the model these vertices belong to, in drawing order. Always 0 before version 3.
+	 */
+	public int getModel()
+	{
+		return model;
+	}
+	
+	/*
+	 Whether the model was the active one when the scene was saved.
+	 */
+	public boolean isActive()
+	{
+		return active;
+	}
+	
+	/*
+	 The transform placing the model in the scene; the identity before version 3.
+	 */
+	public AffineTransform getTransform()
+	{
+		return transform == null ? new AffineTransform() : new AffineTransform(transform);
+	}
+	
+	/*
+	 Writes a model in the version 2 format, with its coordinates and extents as they are.
+	 */
+	public static void write(Model model, File file) throws IOException
+	{
+		write(model, file, null);
+	}
+	
+	public static void write(Model model, File file, ProgressListener listener) throws IOException
+	{
+		FileEvent event = new FileEvent();
+		event.begin();
+		
+		int size = model.size();
+		
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel())
+		{
+			raf.setLength(HEADER_SIZE + getColumnBytes(size));
+			
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(FLAG_SELECTION);
+			header.putInt(0);
+			header.putLong(size);
+			
+			for(double extent : model.getExtents())
+				header.putDouble(extent);
+			
+			writeColumns(channel, HEADER_SIZE, model, listener, 0, size);
+		}
+		
+		commit(event, "Save", file, VERSION, size);
+	}
+	
+	/*
+	 Writes every model of a scene, with its transform and selection, in the version 3 format.
+	 */
+	public static void write(Scene scene, File file, ProgressListener listener) throws IOException
+	{
+		write(scene, getExtents(scene), scene.getBounds(), file, listener);
+	}
+	
+	/*
+	 Same as write() above, with each model's extents and the scene's bounds worked out beforehand,
+	 since working them out can cache them in the models. A worker thread writing a scene it
+	 doesn't own can then leave the models as they are. bounds may be null for an empty scene.
+	 */
+	public static void write(Scene scene, double[][] extents, Rectangle2D bounds, File file, ProgressListener listener) throws IOException
+	{
+		FileEvent event = new FileEvent();
+		event.begin();
+		
+		List<Model> models = scene.getModels();
+		
+		long total = scene.getVertexCount();
+		long length = HEADER_SIZE;
+		
+		for(Model model : models)
+			length += MODEL_HEADER_SIZE + getColumnBytes(model.size());
+		
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel())
+		{
+			raf.setLength(length);
+			
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			
+			header.putInt(MAGIC);
+			header.putInt(SCENE_VERSION);
+			header.putInt(0);
+			header.putInt(models.size());
+			header.putLong(total);
+			
+			if(bounds == null)
+				bounds = new Rectangle2D.Double();
+			
+			header.putDouble(bounds.getMinX());
+			header.putDouble(bounds.getMinY());
+			header.putDouble(bounds.getMaxX());
+			header.putDouble(bounds.getMaxY());
+			
+			long position = HEADER_SIZE;
+			long done = 0;
+			
+			double[] matrix = new double[6];
+			
+			for(int m = 0; m < models.size(); m++)
+			{
+				Model model = models.get(m);
+				
+				MappedByteBuffer modelHeader = channel.map(FileChannel.MapMode.READ_WRITE, position, MODEL_HEADER_SIZE);
+				modelHeader.order(ByteOrder.LITTLE_ENDIAN);
+				
+				modelHeader.putLong(model.size());
+				modelHeader.putInt(FLAG_SELECTION | (model == scene.getActive() ? FLAG_ACTIVE : 0));
+				modelHeader.putInt(0);
+				
+				model.getTransform().getMatrix(matrix);
+				
+				for(double value : matrix)
+					modelHeader.putDouble(value);
+				
+				for(double extent : extents[m])
+					modelHeader.putDouble(extent);
+				
+				position += MODEL_HEADER_SIZE;
+				
+				writeColumns(channel, position, model, listener, done, total);
+				
+				position += getColumnBytes(model.size());
+				done += model.size();
+			}
+		}
+		
+		commit(event, "Save", file, SCENE_VERSION, total);
+	}
+	
+	/*
+	 The extents of each model of the scene, in drawing order, for write().
+	 */
+	public static double[][] getExtents(Scene scene)
+	{
+		List<Model> models = scene.getModels();
+		
+		double[][] extents = new double[models.size()][];
+		
+		for(int m = 0; m < extents.length; m++)
+			extents[m] = models.get(m).getExtents();
+		
+		return extents;
+	}
+	
+	/*
+	 Bytes taken by the x and y columns and the selection of size vertices.
+	 */
+	private static long getColumnBytes(int size)
+	{
+		return 2*(long)size*8 + ((size+63L)/64)*8;
+	}
+	
+	/*
+	 Writes the x and y columns and the selection of a model from position on. Progress counts on
+	 from done towards total.
+	 */
+	private static void writeColumns(FileChannel channel, long position, Model model, ProgressListener listener, long done, long total) throws IOException
+	{
+		int size = model.size();
+		
+		long columnBytes = (long)size*8;
+		long selectionBytes = ((size+63L)/64)*8;
+		
+		for(int start = 0; start < size; start += WINDOW)
+		{
+			int count = Math.min(WINDOW, size-start);
+			
+			DoubleBuffer x = mapDoubles(channel, FileChannel.MapMode.READ_WRITE, position + (long)start*8, count);
+			DoubleBuffer y = mapDoubles(channel, FileChannel.MapMode.READ_WRITE, position + columnBytes + (long)start*8, count);
+			
+			for(int i = start; i < start+count; i++)
+			{
+				x.put(model.getX(i));
+				y.put(model.getY(i));
+			}
+			
+			if(listener != null)
+				listener.progress(done+start+count, total);
+		}
+		
+		if(selectionBytes > 0)
+		{
+			MappedByteBuffer bits = channel.map(FileChannel.MapMode.READ_WRITE, position + 2*columnBytes, selectionBytes);
+			
+			LongBuffer words = bits.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			
+			long word = 0;
+			
+			for(int i = 0; i < size; i++)
+			{
+				if(model.isSelected(i))
+					word |= 1L << (i & 63);
+				
+				if((i & 63) == 63 || i == size-1)
+				{
+					words.put(word);
+					word = 0;
+				}
+			}
+		}
+	}
+	
+	private static void commit(FileEvent event, String operation, File file, int version, long vertices)
+	{
+		if(event.shouldCommit())
+		{
+			event.operation = operation;
+			event.path = file.getPath();
+			event.version = version;
+			event.bytes = file.length();
+			event.vertices = (int)Math.min(vertices, Integer.MAX_VALUE);
+			
+			event.commit();
+		}
+	}
+	
+	/*
+	 Reads a file holding a single model. A version 3 file holding more than one is refused rather
+	 than cut short; readScene() reads those.
+	 */
+	public static CvgFile read(File file) throws IOException
+	{
+		return read(file, null);
+	}
+	
+	public static CvgFile read(File file, ProgressListener listener) throws IOException
+	{
+		List<CvgFile> models = readScene(file, listener);
+		
+		if(models.size() != 1)
+			throw new IOException(file.getName() + " holds " + models.size() + " models, not one");
+		
+		return models.get(0);
+	}
+	
+	/*
+	 Reads every model a file holds, in drawing order. Files of versions 1 and 2 hold one.
+	 */
+	public static List<CvgFile> readScene(File file, ProgressListener listener) throws IOException
+	{
+		FileEvent event = new FileEvent();
+		event.begin();
+		
+		List<CvgFile> models = new ArrayList<CvgFile>();
+		
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+		{
+			if(isBinary(channel))
+				readBinary(channel, models, listener);
+		}
+		
+		if(models.isEmpty())
+			models.add(readText(file, listener));
+		
+		long vertices = 0;
+		
+		for(CvgFile model : models)
+			vertices += model.size();
+		
+		commit(event, "Load", file, models.get(0).getVersion(), vertices);
+		
+		return models;
+	}
+	
+	/*
+	 Reads a file a chunk of at most chunkSize vertices at a time, handing each chunk to chunks as
+	 soon as it has been read, so the start of a large file can be shown while the rest is still
+	 on its way. The chunks of each model come in order, tagged with the model's index, and a
+	 model without vertices still gets one empty chunk. Returns the number of vertices read.
+	 */
+	public static long stream(File file, int chunkSize, ChunkListener chunks, ProgressListener listener) throws IOException
+	{
+		FileEvent event = new FileEvent();
+		event.begin();
+		
+		/*Keeps chunks of the selection column on whole longs.*/
+		chunkSize = Math.max(64, (chunkSize+63) & ~63);
+		
+		int version = 1;
+		long size = -1;
+		
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+		{
+			if(isBinary(channel))
+			{
+				List<Block> blocks = readBlocks(channel);
+				
+				version = blocks.get(0).version;
+				size = streamBinary(channel, blocks, chunkSize, chunks, listener);
+			}
+		}
+		
+		if(size < 0)
+			size = streamText(file, chunkSize, chunks, listener);
+		
+		commit(event, "Stream", file, version, size);
+		
+		return size;
+	}
+	
+	private static boolean isBinary(FileChannel channel) throws IOException
+	{
+		if(channel.size() < HEADER_SIZE)
+			return false;
+		
+		ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		
+		channel.read(magic, 0);
+		
+		return magic.getInt(0) == MAGIC;
+	}
+	
+	private static void readBinary(FileChannel channel, List<CvgFile> models, ProgressListener listener) throws IOException
+	{
+		List<Block> blocks = readBlocks(channel);
+		
+		long total = 0;
+		
+		for(Block block : blocks)
+			total += block.size;
+		
+		long done = 0;
+		
+		for(Block block : blocks)
+		{
+			int size = block.size;
+			long columnBytes = (long)size*8;
+			
+			double[] xs = new double[size];
+			double[] ys = new double[size];
+			
+			for(int start = 0; start < size; start += WINDOW)
+			{
+				int length = Math.min(WINDOW, size-start);
+				
+				mapDoubles(channel, FileChannel.MapMode.READ_ONLY, block.position + (long)start*8, length).get(xs, start, length);
+				mapDoubles(channel, FileChannel.MapMode.READ_ONLY, block.position + columnBytes + (long)start*8, length).get(ys, start, length);
+				
+				if(listener != null)
+					listener.progress(done+start+length, total);
+			}
+			
+			BitSet selected;
+			
+			if(block.selection && size > 0)
+			{
+				MappedByteBuffer bits = channel.map(FileChannel.MapMode.READ_ONLY, block.position + 2*columnBytes, ((size+63L)/64)*8);
+				
+				selected = BitSet.valueOf(bits.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+			}
+			else
+				selected = new BitSet();
+			
+			models.add(block.toFile(xs, ys, selected, size));
+			
+			done += size;
+		}
+	}
+	
+	private static long streamBinary(FileChannel channel, List<Block> blocks, int chunkSize, ChunkListener chunks, ProgressListener listener) throws IOException
+	{
+		long total = 0;
+		
+		for(Block block : blocks)
+			total += block.size;
+		
+		long done = 0;
+		
+		for(Block block : blocks)
+		{
+			int size = block.size;
+			long columnBytes = (long)size*8;
+			
+			LongBuffer bits = null;
+			
+			if(block.selection && size > 0)
+				bits = channel.map(FileChannel.MapMode.READ_ONLY, block.position + 2*columnBytes, ((size+63L)/64)*8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			
+			if(size == 0)
+				chunks.chunk(block.toFile(new double[0], new double[0], new BitSet(), 0));
+			
+			for(int start = 0; start < size; start += chunkSize)
+			{
+				int length = Math.min(chunkSize, size-start);
+				
+				double[] xs = new double[length];
+				double[] ys = new double[length];
+				
+				mapDoubles(channel, FileChannel.MapMode.READ_ONLY, block.position + (long)start*8, length).get(xs);
+				mapDoubles(channel, FileChannel.MapMode.READ_ONLY, block.position + columnBytes + (long)start*8, length).get(ys);
+				
+				BitSet selected = new BitSet();
+				
+				if(bits != null)
+				{
+					long[] words = new long[(length+63)/64];
+					
+					bits.get(start/64, words);
+					
+					selected = BitSet.valueOf(words);
+				}
+				
+				chunks.chunk(block.toFile(xs, ys, selected, length));
+				
+				if(listener != null)
+					listener.progress(done+start+length, total);
+			}
+			
+			done += size;
+		}
+		
+		return total;
+	}
+	
+	/*
+	 Reads the header, or headers, of a binary file, and checks the file is long enough to hold
+	 the columns they describe. Returns one block per model.
+	 */
+	private static List<Block> readBlocks(FileChannel channel) throws IOException
+	{
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		
+		header.getInt();
+		
+		int version = header.getInt();
+		int flags = header.getInt();
+		int models = header.getInt();
+		long count = header.getLong();
+		
+		List<Block> blocks = new ArrayList<Block>();
+		
+		if(version == VERSION)
+		{
+			Block block = new Block(version, 0, HEADER_SIZE, checkCount(count));
+			
+			block.selection = (flags & FLAG_SELECTION) != 0;
+			
+			for(int i = 0; i < 4; i++)
+				block.extents[i] = header.getDouble();
+			
+			blocks.add(block);
+		}
+		else if(version == SCENE_VERSION)
+		{
+			if(models < 1)
+				throw new IOException("Invalid model count " + models);
+			
+			long position = HEADER_SIZE;
+			
+			for(int m = 0; m < models; m++)
+			{
+				if(channel.size() < position + MODEL_HEADER_SIZE)
+					throw new IOException("Truncated .cvg file");
+				
+				MappedByteBuffer modelHeader = channel.map(FileChannel.MapMode.READ_ONLY, position, MODEL_HEADER_SIZE);
+				modelHeader.order(ByteOrder.LITTLE_ENDIAN);
+				
+				int size = checkCount(modelHeader.getLong());
+				int modelFlags = modelHeader.getInt();
+				modelHeader.getInt();
+				
+				Block block = new Block(version, m, position + MODEL_HEADER_SIZE, size);
+				
+				block.selection = (modelFlags & FLAG_SELECTION) != 0;
+				block.active = (modelFlags & FLAG_ACTIVE) != 0;
+				block.transform = new double[6];
+				
+				for(int i = 0; i < 6; i++)
+					block.transform[i] = modelHeader.getDouble();
+				
+				for(int i = 0; i < 4; i++)
+					block.extents[i] = modelHeader.getDouble();
+				
+				blocks.add(block);
+				
+				position = block.position + getColumnBytes(size);
+			}
+		}
+		else
+			throw new IOException("Unsupported .cvg version " + version);
+		
+		/*Version 2 files only hold a selection column when they say so.*/
+		Block last = blocks.get(blocks.size()-1);
+		
+		long end = last.position + 2*(long)last.size*8 + (last.selection ? ((last.size+63L)/64)*8 : 0);
+		
+		if(channel.size() < end)
+			throw new IOException("Truncated .cvg file");
+		
+		return blocks;
+	}
+	
+	private static int checkCount(long count) throws IOException
+	{
+		if(count < 0 || count > Integer.MAX_VALUE-8)
+			throw new IOException("Invalid vertex count " + count);
+		
+		return (int)count;
+	}
+	
+	/*
+	 Where one model's columns lie in a binary file, and what its header says about it.
+	 */
+	private static class Block
+	{
+		int version;
+		int model;
+		
+		long position;
+		int size;
+		
+		boolean selection;
+		boolean active;
+		
+		double[] transform;
+		double[] extents = new double[4];
+		
+		Block(int version, int model, long position, int size)
+		{
+			this.version = version;
+			this.model = model;
+			this.position = position;
+			this.size = size;
+		}
+		
+		CvgFile toFile(double[] xs, double[] ys, BitSet selected, int length)
+		{
+			CvgFile contents = new CvgFile(xs, ys, selected, length, version);
+			
+			contents.model = model;
+			contents.active = active;
+			contents.transform = transform;
+			contents.extents = extents;
+			
+			return contents;
+		}
+	}
+	
+	private static CvgFile readText(File file, ProgressListener listener) throws IOException
+	{
+		/*Gathers the chunks back into whole columns.*/
+		CvgFile contents = new CvgFile(new double[1024], new double[1024], new BitSet(), 0, 1);
+		
+		streamText(file, TEXT_PROGRESS_LINES, chunk -> contents.append(chunk), listener);
+		
+		return contents;
+	}
+	
+	private static int streamText(File file, int chunkSize, ChunkListener chunks, ProgressListener listener) throws IOException
+	{
+		long length = file.length();
+		long position = 0;
+		
+		double[] xs = new double[chunkSize];
+		double[] ys = new double[chunkSize];
+		
+		int count = 0;
+		int size = 0;
+		
+		try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII), 1 << 16))
+		{
+			String line;
+			
+			while((line = br.readLine()) != null)
+			{
+				position += line.length()+1;
+				
+				int comma = line.indexOf(',');
+				
+				if(comma < 0)
+					continue;
+				
+				try
+				{
+					xs[count] = Double.parseDouble(line.substring(0, comma));
+					ys[count] = Double.parseDouble(line.substring(comma+1));
+				} catch (NumberFormatException e)
+				{
+					throw new IOException("Malformed vertex on line " + (size+1) + ": " + line, e);
+				}
+				
+				count++;
+				size++;
+				
+				if(count == chunkSize)
+				{
+					chunks.chunk(new CvgFile(xs, ys, new BitSet(), count, 1));
+					
+					xs = new double[chunkSize];
+					ys = new double[chunkSize];
+					count = 0;
+				}
+				
+				if(listener != null && size % TEXT_PROGRESS_LINES == 0)
+					listener.progress(Math.min(position, length), length);
+			}
+		}
+		
+		if(count > 0)
+			chunks.chunk(new CvgFile(xs, ys, new BitSet(), count, 1));
+		
+		return size;
+	}
+	
+	/*
+	 Adds the vertices of a chunk to the end of this file's columns.
+	 */
+	private void append(CvgFile chunk)
+	{
+		if(size+chunk.size > xs.length)
+		{
+			int newLength = Math.max(size+chunk.size, xs.length*2);
+			
+			xs = Arrays.copyOf(xs, newLength);
+			ys = Arrays.copyOf(ys, newLength);
+		}
+		
+		System.arraycopy(chunk.xs, 0, xs, size, chunk.size);
+		System.arraycopy(chunk.ys, 0, ys, size, chunk.size);
+		
+		for(int i = chunk.selected.nextSetBit(0); i >= 0 && i < chunk.size; i = chunk.selected.nextSetBit(i+1))
+			selected.set(size+i);
+		
+		size += chunk.size;
+	}
+	
+	private static DoubleBuffer mapDoubles(FileChannel channel, FileChannel.MapMode mode, long position, int count) throws IOException
+	{
+		MappedByteBuffer buffer = channel.map(mode, position, (long)count*8);
+		
+		return buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+	}
+}
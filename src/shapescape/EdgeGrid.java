@@ -0,0 +1,196 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Uniform grid over model space indexing a model's edges, for finding the point on an edge
+ nearest to the cursor. Edge i runs from slot i to slot i+1. Every edge is listed in each cell
+ the segment passes through, so a long edge is still found from anywhere along it.
+
+ Updates read the edge's end points from the model, so an edge has to be removed before
+ either end moves and added again afterwards.
+ */
+public class EdgeGrid extends CellGrid
+{
+	private boolean skipSelected;
+	
+	public EdgeGrid(Model model, double cellSize)
+	{
+		super(model, cellSize);
+	}
+	
+	public void add(int edge)
+	{
+		cover(edge, true);
+	}
+	
+	public void remove(int edge)
+	{
+		cover(edge, false);
+	}
+	
+	/*
+	 Adds the edges starting at slots [from, to).
+	 */
+	public void add(int from, int to)
+	{
+		for(int edge = Math.max(from, 0); edge < to && edge < model.size()-1; edge++)
+			cover(edge, true);
+	}
+	
+	/*
+	 Removes the edges starting at slots [from, to).
+	 */
+	public void remove(int from, int to)
+	{
+		for(int edge = Math.max(from, 0); edge < to && edge < model.size()-1; edge++)
+			cover(edge, false);
+	}
+	
+	public void rebuild()
+	{
+		clear();
+		
+		add(0, model.size()-1);
+	}
+	
+	/*
+	 Adds every edge listed in a cell touching area to result, in order and once each. Every edge
+	 passing through the area is among them, along with some that only pass near it.
+	 */
+	public void query(Rectangle2D area, IntList result)
+	{
+		List<IntList> cells = new ArrayList<IntList>();
+		
+		getCells(area, cells);
+		
+		for(IntList cell : cells)
+		{
+			for(int i = 0; i < cell.size(); i++)
+				result.add(cell.get(i));
+		}
+		
+		result.sortUnique();
+	}
+	
+	/*
+	 Returns the edge passing nearest to (x, y), or -1 if none comes within maxDistance, and
+	 stores the nearest point on it in point. Distances are measured through the linear part of
+	 metric as in VertexGrid.nearest(). Edges with a selected end are passed over if skipSelected
+	 is set.
+	 */
+	public int nearest(double x, double y, AffineTransform metric, double maxDistance, boolean skipSelected, double[] point)
+	{
+		this.skipSelected = skipSelected;
+		
+		int edge = nearest(x, y, metric, maxDistance);
+		
+		if(edge >= 0)
+		{
+			double t = closest(edge);
+			
+			double x0 = model.getX(edge);
+			double y0 = model.getY(edge);
+			
+			point[0] = x0 + t*(model.getX(edge+1)-x0);
+			point[1] = y0 + t*(model.getY(edge+1)-y0);
+		}
+		
+		return edge;
+	}
+	
+	@Override
+	protected double distanceSq(int edge)
+	{
+		if(skipSelected && (model.isSelected(edge) || model.isSelected(edge+1)))
+			return Double.POSITIVE_INFINITY;
+		
+		double t = closest(edge);
+		
+		double x0 = model.getX(edge);
+		double y0 = model.getY(edge);
+		
+		return measure(x0 + t*(model.getX(edge+1)-x0) - queryX, y0 + t*(model.getY(edge+1)-y0) - queryY);
+	}
+	
+	/*
+	 Where along the edge, from 0 at its start to 1 at its end, it passes nearest to the point
+	 being searched for. Worked out under the metric, which keeps the edge straight.
+	 */
+	private double closest(int edge)
+	{
+		double dx = model.getX(edge+1)-model.getX(edge);
+		double dy = model.getY(edge+1)-model.getY(edge);
+		
+		double px = queryX-model.getX(edge);
+		double py = queryY-model.getY(edge);
+		
+		double ex = m00*dx + m01*dy;
+		double ey = m10*dx + m11*dy;
+		
+		double lengthSq = ex*ex + ey*ey;
+		
+		if(lengthSq == 0)
+			return 0;
+		
+		double t = (ex*(m00*px + m01*py) + ey*(m10*px + m11*py)) / lengthSq;
+		
+		return Math.max(0, Math.min(1, t));
+	}
+	
+	/*
+	 Adds the edge to, or removes it from, every cell it passes through, one column of cells at
+	 a time.
+	 */
+	private void cover(int edge, boolean add)
+	{
+		double x0 = model.getX(edge);
+		double y0 = model.getY(edge);
+		double x1 = model.getX(edge+1);
+		double y1 = model.getY(edge+1);
+		
+		/*Walk the columns from left to right.*/
+		if(x0 > x1)
+		{
+			double swap = x0;
+			x0 = x1;
+			x1 = swap;
+			
+			swap = y0;
+			y0 = y1;
+			y1 = swap;
+		}
+		
+		int first = cellOf(x0);
+		int last = cellOf(x1);
+		
+		for(int cx = first; cx <= last; cx++)
+		{
+			/*The part of the edge inside this column.*/
+			double top = y0;
+			double bottom = y1;
+			
+			if(first != last)
+			{
+				double slope = (y1-y0)/(x1-x0);
+				
+				top = y0 + slope*(Math.max(x0, cx*cellSize)-x0);
+				bottom = y0 + slope*(Math.min(x1, (cx+1)*cellSize)-x0);
+			}
+			
+			int minY = cellOf(Math.min(top, bottom));
+			int maxY = cellOf(Math.max(top, bottom));
+			
+			for(int cy = minY; cy <= maxY; cy++)
+			{
+				if(add)
+					addToCell(cx, cy, edge);
+				else
+					removeFromCell(cx, cy, edge);
+			}
+		}
+	}
+}
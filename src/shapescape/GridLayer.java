@@ -0,0 +1,149 @@
+package shapescape;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+
+/*
+ Background grid drawn in step with the view's zoom and pan.
+ The line paths are cached and only rebuilt when the grid size, zoom or panel size change;
+ panning just shifts the cached paths by less than one major cell.
+ */
+public class GridLayer
+{
+	/*Minor lines closer together than this many pixels are merged into the next level.*/
+	private static final double MIN_SPACING = 8;
+	
+	private static final int MAJOR_EVERY = 5;
+	
+	/*Zoomed out further than this many levels past the grid size, no grid is drawn.*/
+	private static final int MAX_LEVELS = 32;
+	
+	private Color minorColor = new Color(60,60,60);
+	private Color majorColor = Color.GRAY;
+	
+	private Path2D.Double minorLines;
+	private Path2D.Double majorLines;
+	
+	private int cachedGridSize = -1;
+	private double cachedScaleX;
+	private double cachedScaleY;
+	private int cachedWidth;
+	private int cachedHeight;
+	
+	private double minorSpacingX;
+	private double minorSpacingY;
+	
+	public GridLayer()
+	{
+		minorLines = new Path2D.Double();
+		majorLines = new Path2D.Double();
+	}
+	
+	public void paint(Graphics2D g2d, AffineTransform viewSpace, int gridSize, int width, int height)
+	{
+		prepare(viewSpace, gridSize, width, height);
+		
+		if(!Double.isFinite(minorSpacingX) || !Double.isFinite(minorSpacingY))
+			return;
+		
+		double majorX = minorSpacingX*MAJOR_EVERY;
+		double majorY = minorSpacingY*MAJOR_EVERY;
+		
+		double tx = viewSpace.getTranslateX();
+		double ty = viewSpace.getTranslateY();
+		
+		double offsetX = tx - Math.floor(tx/majorX)*majorX - majorX;
+		double offsetY = ty - Math.floor(ty/majorY)*majorY - majorY;
+		
+		AffineTransform saved = g2d.getTransform();
+		
+		g2d.translate(offsetX, offsetY);
+		
+		g2d.setPaint(minorColor);
+		g2d.draw(minorLines);
+		
+		g2d.setPaint(majorColor);
+		g2d.draw(majorLines);
+		
+		g2d.setTransform(saved);
+	}
+	
+	/*
+	 Rebuilds the cached paths if they do not match the given view. Once they do, paint() only
+	 reads them, so several threads may paint the same layer after one call to this.
+	 */
+	public void prepare(AffineTransform viewSpace, int gridSize, int width, int height)
+	{
+		double scaleX = Math.abs(viewSpace.getScaleX());
+		double scaleY = Math.abs(viewSpace.getScaleY());
+		
+		if(gridSize != cachedGridSize || scaleX != cachedScaleX || scaleY != cachedScaleY
+				|| width != cachedWidth || height != cachedHeight)
+		{
+			rebuild(gridSize, scaleX, scaleY, width, height);
+		}
+	}
+	
+	/*
+	 Returns the distance, in model units, between the minor lines currently shown, or infinity
+	 if no grid is shown: the scale isn't positive and finite, or the view is zoomed out so far
+	 that no level within MAX_LEVELS spreads the lines MIN_SPACING apart.
+	 */
+	public static double getStep(int gridSize, double scale)
+	{
+		if(gridSize <= 0 || !(scale > 0) || !Double.isFinite(scale))
+			return Double.POSITIVE_INFINITY;
+		
+		double step = gridSize;
+		
+		for(int level = 0; step*scale < MIN_SPACING; level++)
+		{
+			if(level == MAX_LEVELS)
+				return Double.POSITIVE_INFINITY;
+			
+			step *= MAJOR_EVERY;
+		}
+		
+		return step;
+	}
+	
+	private void rebuild(int gridSize, double scaleX, double scaleY, int width, int height)
+	{
+		cachedGridSize = gridSize;
+		cachedScaleX = scaleX;
+		cachedScaleY = scaleY;
+		cachedWidth = width;
+		cachedHeight = height;
+		
+		minorSpacingX = getStep(gridSize, scaleX)*scaleX;
+		minorSpacingY = getStep(gridSize, scaleY)*scaleY;
+		
+		/*Paths extend one major cell past each edge so they can be shifted by the pan offset.*/
+		double spanX = width + 2*minorSpacingX*MAJOR_EVERY;
+		double spanY = height + 2*minorSpacingY*MAJOR_EVERY;
+		
+		minorLines.reset();
+		majorLines.reset();
+		
+		if(!Double.isFinite(minorSpacingX) || !Double.isFinite(minorSpacingY))
+			return;
+		
+		for(int k = 0; k*minorSpacingX <= spanX; k++)
+		{
+			Path2D.Double lines = (k % MAJOR_EVERY == 0) ? majorLines : minorLines;
+			
+			lines.moveTo(k*minorSpacingX, 0);
+			lines.lineTo(k*minorSpacingX, spanY);
+		}
+		
+		for(int k = 0; k*minorSpacingY <= spanY; k++)
+		{
+			Path2D.Double lines = (k % MAJOR_EVERY == 0) ? majorLines : minorLines;
+			
+			lines.moveTo(0, k*minorSpacingY);
+			lines.lineTo(spanX, k*minorSpacingY);
+		}
+	}
+}
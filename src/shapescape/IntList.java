@@ -0,0 +1,101 @@
+package shapescape;
+
+import java.util.Arrays;
+
+/*
+ Growable list of primitive ints, used wherever vertex slots are collected in bulk.
+ */
+public class IntList
+{
+	private int[] values;
+	
+	private int size;
+	
+	public IntList()
+	{
+		this(8);
+	}
+	
+	public IntList(int capacity)
+	{
+		values = new int[Math.max(capacity, 1)];
+	}
+	
+	public void add(int value)
+	{
+		if(size == values.length)
+			values = Arrays.copyOf(values, size*2);
+		
+		values[size++] = value;
+	}
+	
+	public int get(int index)
+	{
+		return values[index];
+	}
+	
+	public void set(int index, int value)
+	{
+		values[index] = value;
+	}
+	
+	/*
+	 Removes the first occurrence of value by moving the last element into its place.
+	 */
+	public boolean removeValue(int value)
+	{
+		for(int i = 0; i < size; i++)
+		{
+			if(values[i] == value)
+			{
+				values[i] = values[--size];
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	public void clear()
+	{
+		size = 0;
+	}
+	
+	public void sort()
+	{
+		Arrays.sort(values, 0, size);
+	}
+	
+	/*
+	 Sorts the list and drops repeated values.
+	 */
+	public void sortUnique()
+	{
+		sort();
+		
+		int kept = 0;
+		
+		for(int i = 0; i < size; i++)
+		{
+			if(kept == 0 || values[i] != values[kept-1])
+				values[kept++] = values[i];
+		}
+		
+		size = kept;
+	}
+	
+	public int[] toArray()
+	{
+		return Arrays.copyOf(values, size);
+	}
+}
@@ -0,0 +1,167 @@
+package shapescape;
+
+/*
+ Simplified versions of a polyline at tolerances a power of two apart, for drawing it at zoom
+ levels where most of its vertices would land on the same pixel as their neighbours.
+
+ Every vertex is ranked once with Simplifier.douglasPeucker, and each level lists, in slot order,
+ the slots ranked at or above its tolerance. Since ranks never go up along a split, every level
+ is exactly the Douglas-Peucker simplification at its tolerance, so no dropped vertex lies further
+ than the tolerance from the line through the level's vertices, and each level holds every vertex
+ of the coarser ones. A level is only kept if it has at most half the vertices of the next finer
+ one kept, and the finest at most half the polyline's, so all levels together hold no more slots
+ than the polyline has vertices.
+
+ A level of detail describes the vertices as they were when it was built, and is only valid until
+ they change; Model drops it then.
+ */
+public class LevelOfDetail
+{
+	/*Levels with fewer vertices than this aren't worth a coarser one.*/
+	private static final int MIN_LEVEL_SIZE = 256;
+	
+	/*Every exponent a rank can have, from below the smallest normal double up to infinity.*/
+	private static final int LOWEST = Double.MIN_EXPONENT-1;
+	private static final int EXPONENTS = Double.MAX_EXPONENT+2-LOWEST;
+	
+	private int vertexCount;
+	
+	/*From finest to coarsest; levels[i] holds the slots ranked at least tolerances[i].*/
+	private double[] tolerances;
+	private int[][] levels;
+	
+	private LevelOfDetail(int vertexCount, double[] tolerances, int[][] levels)
+	{
+		this.vertexCount = vertexCount;
+		
+		this.tolerances = tolerances;
+		this.levels = levels;
+	}
+	
+	public static LevelOfDetail build(double[] xs, double[] ys, int count, ProgressListener listener)
+	{
+		double[] rank = Simplifier.douglasPeucker(xs, ys, count, listener);
+		
+		/*
+		 Counts the vertices by the binary exponent of their rank, then sums the counts from the top
+		 so atLeast[e] is the size of the level with tolerance 2^e.
+		 */
+		int[] atLeast = new int[EXPONENTS];
+		
+		for(int i = 0; i < count; i++)
+			atLeast[exponent(rank[i])-LOWEST]++;
+		
+		for(int e = EXPONENTS-2; e >= 0; e--)
+			atLeast[e] += atLeast[e+1];
+		
+		/*Picks the levels from the finest tolerance up, each at most half the one before.*/
+		int[] exponents = new int[EXPONENTS];
+		int levelCount = 0;
+		
+		int previous = count;
+		
+		for(int e = 1; e < EXPONENTS-1; e++)
+		{
+			if(atLeast[e] < MIN_LEVEL_SIZE)
+				break;
+			
+			if(atLeast[e] <= previous/2)
+			{
+				exponents[levelCount++] = e;
+				previous = atLeast[e];
+			}
+		}
+		
+		double[] tolerances = new double[levelCount];
+		int[][] levels = new int[levelCount][];
+		
+		for(int l = 0; l < levelCount; l++)
+		{
+			tolerances[l] = Math.scalb(1.0, exponents[l]+LOWEST);
+			levels[l] = new int[atLeast[exponents[l]]];
+		}
+		
+		/*The coarsest level a vertex makes, by the exponent of its rank, or -1 if none.*/
+		int[] coarsest = new int[EXPONENTS];
+		
+		for(int e = 0, l = -1; e < EXPONENTS; e++)
+		{
+			while(l+1 < levelCount && exponents[l+1] <= e)
+				l++;
+			
+			coarsest[e] = l;
+		}
+		
+		int[] filled = new int[levelCount];
+		
+		for(int i = 0; i < count; i++)
+		{
+			int top = coarsest[exponent(rank[i])-LOWEST];
+			
+			for(int l = 0; l <= top; l++)
+				levels[l][filled[l]++] = i;
+		}
+		
+		return new LevelOfDetail(count, tolerances, levels);
+	}
+	
+	/*
+	 The binary exponent of a rank, with infinity above every finite one, and zero and subnormal
+	 ranks below them all.
+	 */
+	private static int exponent(double rank)
+	{
+		if(rank == Double.POSITIVE_INFINITY)
+			return Double.MAX_EXPONENT+1;
+		
+		if(rank <= 0)
+			return LOWEST;
+		
+		return Math.getExponent(rank);
+	}
+	
+	/*
+	 Returns the slots of the coarsest level that strays no further than tolerance from the
+	 polyline, or null if the polyline itself is needed.
+	 */
+	public int[] getLevel(double tolerance)
+	{
+		for(int l = levels.length-1; l >= 0; l--)
+		{
+			if(tolerances[l] <= tolerance)
+				return levels[l];
+		}
+		
+		return null;
+	}
+	
+	public int getLevelCount()
+	{
+		return levels.length;
+	}
+	
+	public double getTolerance(int level)
+	{
+		return tolerances[level];
+	}
+	
+	public int[] getSlots(int level)
+	{
+		return levels[level];
+	}
+	
+	public int getVertexCount()
+	{
+		return vertexCount;
+	}
+	
+	public long getEstimatedSize()
+	{
+		long size = 64;
+		
+		for(int[] level : levels)
+			size += 16 + 4L*level.length;
+		
+		return size;
+	}
+}
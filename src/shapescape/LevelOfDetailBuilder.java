@@ -0,0 +1,192 @@
+package shapescape;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/*
+ Builds levels of detail for the large models of the scene on a background thread, one model at
+ a time, and attaches them on the event thread. A model is only picked up once its vertices have
+ been left alone for QUIET_PERIOD, so a drag or a file still streaming in isn't ranked over and
+ over. A build whose model changes again, or leaves the scene, is cancelled, and the model is
+ picked up again once it settles.
+
+ All methods run on the event thread.
+ */
+class LevelOfDetailBuilder
+{
+	/*Smaller models draw quickly enough as they are.*/
+	private static final int MIN_VERTICES = 1 << 16;
+	
+	private static final int QUIET_PERIOD = 300;
+	
+	private ShapeScape modeler;
+	
+	private ExecutorService executor;
+	
+	/*Fires once the earliest model still settling has been left alone long enough.*/
+	private Timer timer;
+	
+	private Model building;
+	private long buildingVersion;
+	
+	/*Set to stop the build running, which checks it between steps.*/
+	private AtomicBoolean cancel;
+	
+	private long checkedModCount = -1;
+	
+	/*Geometry versions that failed to build, which aren't tried again.*/
+	private Map<Model, Long> failed = new WeakHashMap<Model, Long>();
+	
+	LevelOfDetailBuilder(ShapeScape modeler)
+	{
+		this.modeler = modeler;
+		
+		executor = Executors.newSingleThreadExecutor(r ->
+		{
+			Thread thread = new Thread(r, "Level of detail");
+			
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			
+			return thread;
+		});
+		
+		timer = new Timer(QUIET_PERIOD, e -> check());
+		timer.setRepeats(false);
+	}
+	
+	/*
+	 Looks for a model to build for if the scene changed since the last look.
+	 */
+	void update(Scene scene)
+	{
+		if(scene.getModificationCount() != checkedModCount)
+			check();
+	}
+	
+	private void check()
+	{
+		Scene scene = modeler.getScene();
+		
+		checkedModCount = scene.getModificationCount();
+		
+		if(building != null)
+		{
+			if(building.getGeometryVersion() != buildingVersion || building.getScene() != scene)
+				cancel.set(true);
+			
+			return;
+		}
+		
+		if(modeler.isBusy())
+		{
+			schedule(QUIET_PERIOD);
+			return;
+		}
+		
+		long now = System.nanoTime();
+		long wait = Long.MAX_VALUE;
+		
+		for(Model model : scene.getModels())
+		{
+			if(model.size() < MIN_VERTICES || model.getLevelOfDetail() != null)
+				continue;
+			
+			Long failedVersion = failed.get(model);
+			
+			if(failedVersion != null && failedVersion == model.getGeometryVersion())
+				continue;
+			
+			long settled = model.getGeometryChangeTime() + QUIET_PERIOD*1000000L - now;
+			
+			if(settled > 0)
+			{
+				wait = Math.min(wait, settled);
+				continue;
+			}
+			
+			build(model);
+			return;
+		}
+		
+		if(wait != Long.MAX_VALUE)
+			schedule((int)(wait/1000000)+1);
+	}
+	
+	private void schedule(int delay)
+	{
+		timer.setInitialDelay(delay);
+		timer.restart();
+	}
+	
+	private void build(Model model)
+	{
+		building = model;
+		
+		/*Copied here, since the model is free to change while the copy is ranked.*/
+		long version = model.getGeometryVersion();
+		
+		buildingVersion = version;
+		
+		double[] xs = model.copyXs();
+		double[] ys = model.copyYs();
+		
+		AtomicBoolean cancelled = new AtomicBoolean();
+		
+		cancel = cancelled;
+		
+		executor.execute(() ->
+		{
+			LevelOfDetail detail = null;
+			boolean stopped = false;
+			
+			try
+			{
+				detail = LevelOfDetail.build(xs, ys, xs.length, (done, total) ->
+				{
+					if(cancelled.get())
+						throw new CancellationException();
+				});
+			} catch (CancellationException e)
+			{
+				stopped = true;
+			} catch (RuntimeException | OutOfMemoryError e)
+			{
+				e.printStackTrace();
+			}
+			
+			LevelOfDetail result = detail;
+			boolean gaveUp = stopped;
+			
+			SwingUtilities.invokeLater(() -> finished(model, version, result, gaveUp));
+		});
+	}
+	
+	/*
+	 Attaches what was built, or, unless the build was cancelled, remembers that it failed.
+	 */
+	private void finished(Model model, long version, LevelOfDetail detail, boolean stopped)
+	{
+		building = null;
+		cancel = null;
+		
+		if(detail != null)
+		{
+			if(model.setLevelOfDetail(detail, version))
+				modeler.repaint();
+		}
+		else if(!stopped)
+		{
+			failed.put(model, version);
+		}
+		
+		check();
+	}
+}
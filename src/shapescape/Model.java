@@ -2,39 +2,135 @@ package shapescape;
 
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.NoninvertibleTransformException;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 public class Model
-{	
+{
 	private AffineTransform transform;
 	
-	private List<Vertex> vertices;
+	/*
+	 Vertex storage is kept as parallel columns; slot i is the i-th point of the polyline.
+	 */
+	private double[] xs;
+	private double[] ys;
+	
+	/*Selection bits by slot, with a live count so emptiness checks don't need a scan.*/
+	private BitSet selected;
+	
+	private int selectedCount;
+	
+	/*
+	 Every vertex gets an ID that never changes while it exists, unlike its slot.
+	 ids maps slot to ID and slotsById maps ID back to slot, or -1 once removed.
+	 */
+	private int[] ids;
+	private int[] slotsById;
+	
+	private int nextId;
+	
+	private int size;
+	
+	/*
+	 Extents are kept up to date as vertices change. When an extreme vertex is removed
+	 or moves inward they are only marked stale, and rescanned the next time they're read.
+	 */
+	private double minX, minY, maxX, maxY;
+	
+	private boolean extentsStale;
 	
 	private Rectangle bounds;
 	
+	private VertexGrid grid;
+	
+	/*Only built once something asks for it, then kept up to date alongside the grid.*/
+	private EdgeGrid edgeGrid;
+	
+	/*Cleared while vertices added without indexing them are missing from the grids.*/
+	private boolean indexed = true;
+	
+	/*How many vertices the grids aim for in each cell, were the vertices spread evenly.*/
+	private static final double VERTICES_PER_CELL = 4;
+	
+	/*The cell size of the grids while there are too few vertices to go by.*/
+	private static final double DEFAULT_CELL_SIZE = 32;
+	
+	/*Bumped on every change to vertices, selection or transform, so views can tell when to redraw.*/
+	private long modCount;
+	
+	/*
+	 Bumped only when vertices are added, removed or moved. A level of detail built from the
+	 vertices at one version is dropped as soon as they change, and only attached if they haven't.
+	 */
+	private long geometryVersion;
+	
+	private long geometryChangedAt;
+	
+	private LevelOfDetail detail;
+	
+	/*The scene this model is part of, if any, which is told about every change.*/
+	private Scene scene;
+	
+	private List<Vertex> vertexView;
+	
 	public Model()
 	{
-		vertices = new ArrayList<Vertex>();
+		xs = new double[16];
+		ys = new double[16];
+		
+		selected = new BitSet();
+		
+		ids = new int[16];
+		slotsById = new int[16];
+		Arrays.fill(slotsById, -1);
+		
+		grid = new VertexGrid(this, DEFAULT_CELL_SIZE);
 		
 		transform = new AffineTransform();
 		
-		bounds = new Rectangle();
+		vertexView = new AbstractList<Vertex>()
+		{
+			@Override
+			public Vertex get(int index)
+			{
+				if(index < 0 || index >= size)
+					throw new IndexOutOfBoundsException("Slot: " + index + ", Size: " + size);
+				
+				return new Vertex(Model.this, ids[index]);
+			}
+			
+			@Override
+			public int size()
+			{
+				return size;
+			}
+		};
 	}
 	
 	public void transform(AffineTransform transform)
 	{
-		for(Vertex v : vertices)
-		{
-			transform.transform(v, v);
-		}
+		double[] extents = transformRange(transform, 0, size);
+		
+		rebuildIndex(extents);
+	}
+	
+	/*
+	 Transforms the slots in [from, to) across the common fork/join pool without touching the grid
+	 or extents, and returns the extents of the transformed range as {minX, minY, maxX, maxY}.
+	 Callers working through the model in pieces must finish with rebuildIndex.
+	 */
+	public double[] transformRange(AffineTransform transform, int from, int to)
+	{
+		return ParallelTransform.transform(transform, xs, ys, from, to);
 	}
 	
 	public void translate(int x, int y)
 	{
 		transform.translate(x, y);
+		
+		modified();
 	}
 	
 	public AffineTransform getTransform()
@@ -44,68 +140,894 @@ public class Model
 	
 	public void applyDirectScaling(double xScale, double yScale)
 	{
-		for(Vertex v : vertices)
+		transform(AffineTransform.getScaleInstance(xScale, yScale));
+	}
+	
+	/*
+	 Rebuilds the grid and rescans the extents after vertices were moved in bulk.
+	 */
+	public void rebuildIndex()
+	{
+		generateBounds();
+		
+		rebuildGrids();
+		
+		geometryChanged();
+	}
+	
+	/*
+	 Same as rebuildIndex(), but trusts extents already gathered while moving the vertices
+	 instead of rescanning them.
+	 */
+	public void rebuildIndex(double[] extents)
+	{
+		if(size == 0)
+			generateBounds();
+		else
+		{
+			minX = extents[0];
+			minY = extents[1];
+			maxX = extents[2];
+			maxY = extents[3];
+			
+			extentsStale = false;
+			bounds = null;
+		}
+		
+		rebuildGrids();
+		
+		geometryChanged();
+	}
+	
+	/*
+	 Returns an independent copy of this model. Vertex IDs are preserved.
+	 */
+	public Model copy()
+	{
+		Model copy = new Model();
+		
+		copy.xs = Arrays.copyOf(xs, Math.max(size, 16));
+		copy.ys = Arrays.copyOf(ys, Math.max(size, 16));
+		copy.ids = Arrays.copyOf(ids, Math.max(size, 16));
+		copy.slotsById = slotsById.clone();
+		copy.nextId = nextId;
+		copy.size = size;
+		
+		copy.selected = (BitSet)selected.clone();
+		copy.selectedCount = selectedCount;
+		
+		copy.minX = minX;
+		copy.minY = minY;
+		copy.maxX = maxX;
+		copy.maxY = maxY;
+		copy.extentsStale = extentsStale;
+		
+		copy.transform = new AffineTransform(transform);
+		
+		copy.rebuildGrids();
+		
+		copy.detail = detail;
+		
+		return copy;
+	}
+	
+	/*
+	 Takes over the contents of another model in one step, so a result prepared on a worker
+	 thread can be swapped in on the event thread without anyone seeing it half done.
+	 The other model must not be used afterwards.
+	 */
+	public void adopt(Model other)
+	{
+		xs = other.xs;
+		ys = other.ys;
+		ids = other.ids;
+		slotsById = other.slotsById;
+		nextId = other.nextId;
+		size = other.size;
+		
+		selected = other.selected;
+		selectedCount = other.selectedCount;
+		
+		minX = other.minX;
+		minY = other.minY;
+		maxX = other.maxX;
+		maxY = other.maxY;
+		extentsStale = other.extentsStale;
+		bounds = other.bounds;
+		
+		transform.setTransform(other.transform);
+		
+		grid = other.grid;
+		grid.setModel(this);
+		
+		indexed = other.indexed;
+		
+		edgeGrid = other.edgeGrid;
+		
+		if(edgeGrid != null)
+			edgeGrid.setModel(this);
+		
+		geometryChanged();
+		
+		detail = other.detail;
+	}
+	
+	public Vertex addVertex(double x, double y)
+	{
+		return addVertex(nextId, x, y);
+	}
+	
+	/*
+	 Appends a vertex under a known ID, so undone vertices can be restored as they were.
+	 The ID must not belong to a vertex that is still in the model.
+	 */
+	public Vertex addVertex(int id, double x, double y)
+	{
+		if(getSlot(id) >= 0)
+			throw new IllegalArgumentException("Vertex " + id + " already exists");
+		
+		ensureCapacity(size+1);
+		
+		int slot = size++;
+		
+		xs[slot] = x;
+		ys[slot] = y;
+		
+		assignId(slot, id);
+		
+		grid.add(slot, x, y);
+		
+		if(edgeGrid != null)
+			edgeGrid.add(slot-1, slot);
+		
+		if(size == 1)
+		{
+			minX = maxX = x;
+			minY = maxY = y;
+			
+			extentsStale = false;
+			bounds = null;
+		}
+		else
+			includeInExtents(x, y);
+		
+		checkCellSize();
+		
+		geometryChanged();
+		
+		return new Vertex(this, id);
+	}
+	
+	/*
+	 Appends count vertices in one step. The extents are merged once for the whole batch,
+	 and offset is added to every coordinate as it is copied in.
+	 Returns the slot of the first appended vertex.
+	 */
+	public int addVertices(double[] srcX, double[] srcY, int count, double offsetX, double offsetY, BitSet srcSelected)
+	{
+		return addVertices(srcX, srcY, count, offsetX, offsetY, srcSelected, true);
+	}
+	
+	/*
+	 Same as addVertices() above, but only indexes the new vertices if index is set. A model shown
+	 while an indexed copy of it is built elsewhere can skip the grids, which are most of the cost,
+	 until it adopts the copy; hit tests miss the unindexed vertices until then.
+	 */
+	public int addVertices(double[] srcX, double[] srcY, int count, double offsetX, double offsetY, BitSet srcSelected, boolean index)
+	{
+		return addVertices(null, srcX, srcY, count, offsetX, offsetY, srcSelected, index);
+	}
+	
+	/*
+	 Appends count vertices under known IDs, as when restoring a model that was saved with its
+	 IDs. None of them may belong to a vertex that is still in the model.
+	 */
+	public int addVertices(int[] srcIds, double[] srcX, double[] srcY, int count, BitSet srcSelected)
+	{
+		for(int i = 0; i < count; i++)
 		{
-			v.setLocation(v.getX()*xScale, v.getY()*yScale);
+			if(getSlot(srcIds[i]) >= 0)
+				throw new IllegalArgumentException("Vertex " + srcIds[i] + " already exists");
 		}
+		
+		return addVertices(srcIds, srcX, srcY, count, 0, 0, srcSelected, true);
 	}
 	
-	public void addVertex(Vertex v)
+	private int addVertices(int[] srcIds, double[] srcX, double[] srcY, int count, double offsetX, double offsetY, BitSet srcSelected, boolean index)
 	{
-		vertices.add(v);
+		int start = size;
+		
+		ensureCapacity(size+count);
+		
+		for(int i = 0; i < count; i++)
+			assignId(start+i, srcIds == null ? nextId : srcIds[i]);
+		
+		double batchMinX = Double.POSITIVE_INFINITY, batchMinY = Double.POSITIVE_INFINITY;
+		double batchMaxX = Double.NEGATIVE_INFINITY, batchMaxY = Double.NEGATIVE_INFINITY;
+		
+		for(int i = 0; i < count; i++)
+		{
+			double x = srcX[i]+offsetX;
+			double y = srcY[i]+offsetY;
+			
+			xs[start+i] = x;
+			ys[start+i] = y;
+			
+			if(index)
+				grid.add(start+i, x, y);
+			
+			if(x < batchMinX)
+				batchMinX = x;
+			if(x > batchMaxX)
+				batchMaxX = x;
+			if(y < batchMinY)
+				batchMinY = y;
+			if(y > batchMaxY)
+				batchMaxY = y;
+		}
+		
+		if(srcSelected != null)
+		{
+			for(int i = srcSelected.nextSetBit(0); i >= 0 && i < count; i = srcSelected.nextSetBit(i+1))
+			{
+				selected.set(start+i);
+				selectedCount++;
+			}
+		}
+		
+		size += count;
+		
+		if(index && edgeGrid != null)
+			edgeGrid.add(start-1, size-1);
+		
+		if(!index && count > 0)
+			indexed = false;
+		
+		if(count > 0)
+		{
+			if(start == 0)
+			{
+				minX = batchMinX;
+				minY = batchMinY;
+				maxX = batchMaxX;
+				maxY = batchMaxY;
+				
+				extentsStale = false;
+				bounds = null;
+			}
+			else
+			{
+				includeInExtents(batchMinX, batchMinY);
+				includeInExtents(batchMaxX, batchMaxY);
+			}
+		}
+		
+		if(index)
+			checkCellSize();
 		
-		if(!bounds.contains(v))
+		geometryChanged();
+		
+		return start;
+	}
+	
+	private void ensureCapacity(int capacity)
+	{
+		if(capacity > xs.length)
+		{
+			int newLength = Math.max(capacity, xs.length*2);
+			
+			xs = Arrays.copyOf(xs, newLength);
+			ys = Arrays.copyOf(ys, newLength);
+			ids = Arrays.copyOf(ids, newLength);
+		}
+	}
+	
+	private void assignId(int slot, int id)
+	{
+		if(id >= slotsById.length)
 		{
-			bounds = generateBounds();
+			int oldLength = slotsById.length;
+			
+			slotsById = Arrays.copyOf(slotsById, Math.max(id+1, oldLength*2));
+			Arrays.fill(slotsById, oldLength, slotsById.length, -1);
 		}
+		
+		ids[slot] = id;
+		slotsById[id] = slot;
+		
+		if(id >= nextId)
+			nextId = id+1;
+	}
+	
+	/*
+	 The ID the next vertex added without one will get.
+	 */
+	public int getNextId()
+	{
+		return nextId;
+	}
+	
+	/*
+	 Makes sure no vertex added from now on without an ID gets one below id, so IDs that were
+	 given out before and later removed are not given out again.
+	 */
+	public void reserveIds(int id)
+	{
+		if(id > nextId)
+		{
+			if(id > slotsById.length)
+			{
+				int oldLength = slotsById.length;
+				
+				slotsById = Arrays.copyOf(slotsById, id);
+				Arrays.fill(slotsById, oldLength, id, -1);
+			}
+			
+			nextId = id;
+		}
+	}
+	
+	/*
+	 Returns the slot currently holding the vertex with this ID, or -1 if it has been removed.
+	 */
+	public int getSlot(int id)
+	{
+		if(id < 0 || id >= nextId)
+			return -1;
+		
+		return slotsById[id];
+	}
+	
+	public int getId(int slot)
+	{
+		return ids[slot];
 	}
 	
 	public void removeVertex(Vertex v)
 	{
-		vertices.remove(v);
+		removeVertex(v.getSlot());
+	}
+	
+	public void removeVertexById(int id)
+	{
+		removeVertex(getSlot(id));
+	}
+	
+	public void removeVertex(int slot)
+	{
+		if(slot < 0 || slot >= size)
+			return;
+		
+		if(isOnExtents(xs[slot], ys[slot]))
+		{
+			extentsStale = true;
+			bounds = null;
+		}
+		
+		slotsById[ids[slot]] = -1;
+		
+		if(selected.get(slot))
+			selectedCount--;
 		
-		bounds = generateBounds();
+		if(slot == size-1)
+		{
+			grid.remove(slot, xs[slot], ys[slot]);
+			
+			if(edgeGrid != null)
+				edgeGrid.remove(slot-1, slot);
+			
+			selected.clear(slot);
+			size--;
+		}
+		else
+		{
+			/*Later slots shift down, so the grid has to be rebuilt.*/
+			int tail = size-slot-1;
+			
+			System.arraycopy(xs, slot+1, xs, slot, tail);
+			System.arraycopy(ys, slot+1, ys, slot, tail);
+			System.arraycopy(ids, slot+1, ids, slot, tail);
+			
+			for(int i = slot; i < size-1; i++)
+				slotsById[ids[i]] = i;
+			
+			if(!selected.isEmpty())
+			{
+				BitSet shifted = selected.get(slot+1, size);
+				
+				selected.clear(slot, size);
+				
+				for(int i = shifted.nextSetBit(0); i >= 0; i = shifted.nextSetBit(i+1))
+					selected.set(slot+i);
+			}
+			
+			size--;
+			
+			rebuildGrids();
+		}
+		
+		geometryChanged();
 	}
 	
+	public void moveVertex(int slot, double x, double y)
+	{
+		double oldX = xs[slot];
+		double oldY = ys[slot];
+		
+		moveInExtents(oldX, oldY, x, y);
+		
+		grid.remove(slot, oldX, oldY);
+		
+		if(edgeGrid != null)
+			edgeGrid.remove(slot-1, slot+1);
+		
+		xs[slot] = x;
+		ys[slot] = y;
+		
+		grid.add(slot, x, y);
+		
+		if(edgeGrid != null)
+			edgeGrid.add(slot-1, slot+1);
+		
+		geometryChanged();
+	}
+	
+	/*
+	 Moves every vertex whose ID lies in one of the [first, last + 1) pairs of idRanges.
+	 Large moves rebuild the grids once instead of moving each vertex in them.
+	 */
+	public void offsetVertices(int[] idRanges, double dx, double dy)
+	{
+		offsetVertices(idRanges, dx, dy, true);
+	}
+	
+	/*
+	 Same as offsetVertices() above, but a large move leaves the grids as they are unless index
+	 is set, so a drag can move the vertices on every frame and index() them once it ends. Until
+	 then hit tests see the moved vertices where they were, or not at all.
+	 */
+	public void offsetVertices(int[] idRanges, double dx, double dy, boolean index)
+	{
+		long count = 0;
+		
+		for(int r = 0; r+1 < idRanges.length; r += 2)
+			count += idRanges[r+1]-idRanges[r];
+		
+		if(count < size/4 && indexed)
+		{
+			for(int r = 0; r+1 < idRanges.length; r += 2)
+			{
+				for(int id = idRanges[r]; id < idRanges[r+1]; id++)
+				{
+					int slot = getSlot(id);
+					
+					if(slot >= 0)
+						moveVertex(slot, xs[slot]+dx, ys[slot]+dy);
+				}
+			}
+			
+			return;
+		}
+		
+		for(int r = 0; r+1 < idRanges.length; r += 2)
+		{
+			for(int id = idRanges[r]; id < idRanges[r+1]; id++)
+			{
+				int slot = getSlot(id);
+				
+				if(slot >= 0)
+				{
+					moveInExtents(xs[slot], ys[slot], xs[slot]+dx, ys[slot]+dy);
+					
+					xs[slot] += dx;
+					ys[slot] += dy;
+				}
+			}
+		}
+		
+		if(index)
+			rebuildGrids();
+		else
+			indexed = false;
+		
+		geometryChanged();
+	}
+	
+	/*
+	 Puts every vertex into the grids again after changes that left them out.
+	 */
+	public void index()
+	{
+		if(!indexed)
+			rebuildGrids();
+	}
+	
+	/*
+	 Keeps the extents up to date as a vertex moves from old to new, or marks them for a rescan
+	 if it moves in from an edge of them.
+	 */
+	private void moveInExtents(double oldX, double oldY, double x, double y)
+	{
+		if(extentsStale)
+			return;
+		
+		boolean inward = (oldX == minX && x > minX) || (oldX == maxX && x < maxX)
+				|| (oldY == minY && y > minY) || (oldY == maxY && y < maxY);
+		
+		if(inward)
+		{
+			extentsStale = true;
+			bounds = null;
+		}
+		else
+			includeInExtents(x, y);
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public double getX(int slot)
+	{
+		return xs[slot];
+	}
+	
+	public double getY(int slot)
+	{
+		return ys[slot];
+	}
+	
+	public boolean isSelected(int slot)
+	{
+		return selected.get(slot);
+	}
+	
+	public void setSelected(int slot, boolean selected)
+	{
+		if(this.selected.get(slot) != selected)
+		{
+			this.selected.set(slot, selected);
+			
+			selectedCount += selected ? 1 : -1;
+			
+			modified();
+		}
+	}
+	
+	public int getSelectedCount()
+	{
+		return selectedCount;
+	}
+	
+	public boolean selectionEmpty()
+	{
+		return selectedCount == 0;
+	}
+	
+	public void clearSelection()
+	{
+		if(selectedCount > 0)
+		{
+			selected.clear();
+			selectedCount = 0;
+			
+			modified();
+		}
+	}
+	
+	/*
+	 Returns the first selected slot at or after from, or -1 if there is none.
+	 */
+	public int nextSelected(int from)
+	{
+		return selected.nextSetBit(from);
+	}
+	
+	/*
+	 Copies the IDs of the selected vertices into a new array, in slot order.
+	 */
+	public int[] getSelectedIds()
+	{
+		int[] result = new int[selectedCount];
+		
+		int n = 0;
+		
+		for(int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i+1))
+			result[n++] = ids[i];
+		
+		return result;
+	}
+	
+	public long getModificationCount()
+	{
+		return modCount;
+	}
+	
+	private void modified()
+	{
+		modCount++;
+		
+		if(scene != null)
+			scene.modelChanged(this);
+	}
+	
+	private void geometryChanged()
+	{
+		geometryVersion++;
+		geometryChangedAt = System.nanoTime();
+		
+		detail = null;
+		
+		modified();
+	}
+	
+	public long getGeometryVersion()
+	{
+		return geometryVersion;
+	}
+	
+	/*
+	 The System.nanoTime() of the last change to the vertices.
+	 */
+	public long getGeometryChangeTime()
+	{
+		return geometryChangedAt;
+	}
+	
+	/*
+	 The simplified versions of the polyline to draw at low zoom, or null if there are none yet.
+	 */
+	public LevelOfDetail getLevelOfDetail()
+	{
+		return detail;
+	}
+	
+	/*
+	 Attaches levels of detail built from the vertices as they were at version. Returns false,
+	 leaving the model as it was, if they have changed since.
+	 */
+	public boolean setLevelOfDetail(LevelOfDetail detail, long version)
+	{
+		if(version != geometryVersion)
+			return false;
+		
+		this.detail = detail;
+		
+		modified();
+		
+		return true;
+	}
+	
+	/*
+	 Copies of the coordinate columns, trimmed to size, for work that must not see later changes.
+	 */
+	public double[] copyXs()
+	{
+		return Arrays.copyOf(xs, size);
+	}
+	
+	public double[] copyYs()
+	{
+		return Arrays.copyOf(ys, size);
+	}
+	
+	Scene getScene()
+	{
+		return scene;
+	}
+	
+	void setScene(Scene scene)
+	{
+		this.scene = scene;
+	}
+	
+	public Vertex getVertex(int slot)
+	{
+		return vertexView.get(slot);
+	}
+	
+	public Vertex getVertexById(int id)
+	{
+		return getSlot(id) < 0 ? null : new Vertex(this, id);
+	}
+	
+	/*
+	 Read-only list of vertex views. Each call to get() creates a fresh view,
+	 so loops in hot paths should read the columns through getX/getY instead.
+	 */
 	public List<Vertex> getVertices()
 	{
-		return vertices;
+		return vertexView;
+	}
+	
+	/*
+	 Rebuilds the grids from scratch, at the cell size that suits the vertices as they are now.
+	 */
+	private void rebuildGrids()
+	{
+		double cellSize = getCellSize();
+		
+		grid.setCellSize(cellSize);
+		grid.rebuild();
+		
+		if(edgeGrid != null)
+		{
+			edgeGrid.setCellSize(cellSize);
+			edgeGrid.rebuild();
+		}
+		
+		indexed = true;
+	}
+	
+	/*
+	 Rebuilds the grids at a new cell size once the vertices have grown or spread so far that the
+	 current one is off by more than a factor of two, which happens after every few doublings at
+	 most. Left alone while the extents are stale, since rescanning them on every addition would
+	 cost more than a grid that is off, and while vertices are missing from the grids.
+	 */
+	private void checkCellSize()
+	{
+		if(extentsStale || !indexed)
+			return;
+		
+		double ratio = getCellSize()/grid.getCellSize();
+		
+		if(ratio > 2 || ratio < 0.5)
+			rebuildGrids();
+	}
+	
+	/*
+	 The cell size that would put VERTICES_PER_CELL vertices in each cell if they were spread
+	 evenly over the extents, or over their length if they lie on a line.
+	 */
+	private double getCellSize()
+	{
+		if(extentsStale)
+			generateBounds();
+		
+		if(size == 0)
+			return DEFAULT_CELL_SIZE;
+		
+		double width = maxX-minX;
+		double height = maxY-minY;
+		
+		double cellSize;
+		
+		if(width > 0 && height > 0)
+			cellSize = Math.sqrt(width*height*VERTICES_PER_CELL/size);
+		else
+			cellSize = Math.max(width, height)*VERTICES_PER_CELL/size;
+		
+		/*Keeps cell coordinates well inside an int, however far out the vertices lie.*/
+		double reach = Math.max(Math.max(Math.abs(minX), Math.abs(maxX)), Math.max(Math.abs(minY), Math.abs(maxY)));
+		
+		cellSize = Math.max(cellSize, reach/(1 << 30));
+		
+		if(!(cellSize > 0) || Double.isInfinite(cellSize))
+			return DEFAULT_CELL_SIZE;
+		
+		return cellSize;
+	}
+	
+	public VertexGrid getVertexGrid()
+	{
+		return grid;
+	}
+	
+	/*
+	 Whether every vertex is in the grids, so they can stand in for a scan of the whole model.
+	 */
+	public boolean isIndexed()
+	{
+		return indexed;
+	}
+	
+	/*
+	 Returns the index of edges between consecutive slots, building it on the first call. From
+	 then on it is updated along with the model, which costs about as much again as the grid. It
+	 shares the vertex grid's cell size, and is rebuilt at a new one along with it.
+	 */
+	public EdgeGrid getEdgeGrid()
+	{
+		if(edgeGrid == null)
+		{
+			edgeGrid = new EdgeGrid(this, grid.getCellSize());
+			edgeGrid.rebuild();
+		}
+		
+		return edgeGrid;
 	}
 	
 	public Rectangle getBounds()
 	{
+		if(bounds == null)
+		{
+			if(extentsStale)
+				return generateBounds();
+			
+			bounds = extentsToBounds();
+		}
+		
 		return bounds;
 	}
 	
-	protected Rectangle generateBounds()
+	/*
+	 Returns the exact extents as {minX, minY, maxX, maxY}, rescanning them first if they went
+	 stale, or all zeros if the model is empty. Unlike getBounds() nothing is rounded.
+	 */
+	public double[] getExtents()
 	{
-		if(vertices.isEmpty())
-			return new Rectangle();
-		else
+		if(extentsStale)
+			generateBounds();
+		
+		if(size == 0)
+			return new double[4];
+		
+		return new double[] {minX, minY, maxX, maxY};
+	}
+	
+	private void includeInExtents(double x, double y)
+	{
+		if(extentsStale)
+			return;
+		
+		if(x < minX || x > maxX || y < minY || y > maxY)
 		{
-			Vertex left,right,top,bottom;
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
 			
-			left = right = top = bottom = vertices.get(0);
+			bounds = null;
+		}
+	}
+	
+	private boolean isOnExtents(double x, double y)
+	{
+		return x == minX || x == maxX || y == minY || y == maxY;
+	}
+	
+	private Rectangle extentsToBounds()
+	{
+		if(size == 0)
+			return new Rectangle();
+		
+		int l = (int)(minX);
+		int r = (int)(maxX - minX);
+		int t = (int)(maxY - minY);
+		int b = (int)(minY);
+		
+		return new Rectangle(l,b,r,t);
+	}
+	
+	/*
+	 Rescans every vertex. Only needed after the extents have been marked stale.
+	 */
+	protected Rectangle generateBounds()
+	{
+		if(size > 0)
+		{
+			minX = maxX = xs[0];
+			minY = maxY = ys[0];
 			
-			for(Vertex v : vertices)
+			for(int i = 1; i < size; i++)
 			{
-				if(v.getX() < left.getX())
-					left = v;
-				if(v.getX() > right.getX())
-					right = v;
-				if(v.getY() < bottom.getY())
-					bottom = v;
-				if(v.getY() > top.getY())
-					top = v;
+				if(xs[i] < minX)
+					minX = xs[i];
+				if(xs[i] > maxX)
+					maxX = xs[i];
+				if(ys[i] < minY)
+					minY = ys[i];
+				if(ys[i] > maxY)
+					maxY = ys[i];
 			}
-			
-			int l = (int)(left.getX());// + transform.getTranslateX());
-			int r = (int)(right.getX() - left.getX());// + transform.getTranslateX());
-			int t = (int)(top.getY() - bottom.getY());// + transform.getTranslateY());
-			int b = (int)(bottom.getY());// + transform.getTranslateY());
-			
-			return new Rectangle(l,b,r,t);
 		}
+		
+		extentsStale = false;
+		bounds = extentsToBounds();
+		
+		return bounds;
 	}
 
 }
@@ -0,0 +1,281 @@
+package shapescape;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ Bounding volume hierarchy over a list of boxes, one per model in a scene, stored as flat
+ arrays. Nodes are laid out depth first, so a node's left child directly follows it and every
+ node comes before its children. Leaves hold up to LEAF_SIZE boxes.
+
+ Boxes are passed as {minX, minY, maxX, maxY} quadruples. An empty box (min above max) is
+ kept in the tree but never matches a query.
+ */
+public class ModelHierarchy
+{
+	private static final int LEAF_SIZE = 4;
+	
+	private double[] boxes = new double[0];
+	
+	/*Box indexes, grouped so every leaf owns a contiguous range.*/
+	private int[] order = new int[0];
+	
+	private double[] nodeBoxes = new double[4];
+	
+	/*For leaves the start of their range in order, for inner nodes the right child.*/
+	private int[] links = new int[1];
+	
+	/*For leaves the length of their range, zero for inner nodes.*/
+	private int[] counts = new int[1];
+	
+	private int[] parents = new int[1];
+	
+	/*The leaf holding each box.*/
+	private int[] leaves = new int[0];
+	
+	private int nodeCount;
+	
+	private int[] stack = new int[64];
+	
+	/*
+	 Builds the tree from scratch over count boxes.
+	 */
+	public void build(double[] boxes, int count)
+	{
+		this.boxes = boxes;
+		
+		order = new int[count];
+		leaves = new int[count];
+		
+		for(int i = 0; i < count; i++)
+			order[i] = i;
+		
+		nodeCount = 0;
+		
+		if(count > 0)
+			build(0, count, -1);
+	}
+	
+	/*
+	 Recomputes the node boxes after the boxes moved, keeping the tree's shape. The number of
+	 boxes must be the same as when the tree was built.
+	 */
+	public void refit(double[] boxes)
+	{
+		this.boxes = boxes;
+		
+		for(int node = nodeCount-1; node >= 0; node--)
+		{
+			if(counts[node] > 0)
+				fitLeaf(node);
+			else
+				union(node, node+1, links[node]);
+		}
+	}
+	
+	/*
+	 Same as refit(boxes), when only the boxes whose indexes are set in changed have moved.
+	 Only the nodes above those boxes are recomputed.
+	 */
+	public void refit(double[] boxes, BitSet changed)
+	{
+		this.boxes = boxes;
+		
+		/*Past a point, walking up from every box costs more than one pass over the tree.*/
+		if(changed.cardinality() > nodeCount/8)
+		{
+			refit(boxes);
+			return;
+		}
+		
+		for(int box = changed.nextSetBit(0); box >= 0; box = changed.nextSetBit(box+1))
+		{
+			int node = leaves[box];
+			
+			fitLeaf(node);
+			
+			for(node = parents[node]; node >= 0; node = parents[node])
+				union(node, node+1, links[node]);
+		}
+	}
+	
+	/*
+	 Adds the index of every box overlapping the area to result.
+	 */
+	public void query(double minX, double minY, double maxX, double maxY, IntList result)
+	{
+		if(nodeCount == 0)
+			return;
+		
+		int top = 0;
+		stack[top++] = 0;
+		
+		while(top > 0)
+		{
+			int node = stack[--top];
+			
+			if(!overlaps(nodeBoxes, node, minX, minY, maxX, maxY))
+				continue;
+			
+			if(counts[node] > 0)
+			{
+				for(int i = links[node]; i < links[node]+counts[node]; i++)
+				{
+					if(overlaps(boxes, order[i], minX, minY, maxX, maxY))
+						result.add(order[i]);
+				}
+			}
+			else
+			{
+				if(top+2 > stack.length)
+					stack = Arrays.copyOf(stack, stack.length*2);
+				
+				/*Push the right child first so boxes come out roughly in index order.*/
+				stack[top++] = links[node];
+				stack[top++] = node+1;
+			}
+		}
+	}
+	
+	private int build(int from, int to, int parent)
+	{
+		int node = addNode();
+		
+		parents[node] = parent;
+		
+		if(to-from <= LEAF_SIZE)
+		{
+			links[node] = from;
+			counts[node] = to-from;
+			
+			for(int i = from; i < to; i++)
+				leaves[order[i]] = node;
+			
+			fitLeaf(node);
+			
+			return node;
+		}
+		
+		/*Split at the middle of the longer side of the box around the centres.*/
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		
+		for(int i = from; i < to; i++)
+		{
+			int box = order[i];
+			
+			if(isEmpty(box))
+				continue;
+			
+			double x = centreX(box);
+			double y = centreY(box);
+			
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		
+		boolean alongX = maxX-minX >= maxY-minY;
+		
+		double split = alongX ? (minX+maxX)/2 : (minY+maxY)/2;
+		
+		int middle = from;
+		
+		for(int i = from; i < to; i++)
+		{
+			int box = order[i];
+			
+			if(!isEmpty(box) && (alongX ? centreX(box) : centreY(box)) < split)
+			{
+				order[i] = order[middle];
+				order[middle++] = box;
+			}
+		}
+		
+		/*All centres on one side, such as when the boxes are stacked: just halve the range.*/
+		if(middle == from || middle == to)
+			middle = (from+to) >>> 1;
+		
+		build(from, middle, node);
+		
+		/*Read after the call: building the children may have grown the arrays.*/
+		int right = build(middle, to, node);
+		
+		links[node] = right;
+		counts[node] = 0;
+		
+		union(node, node+1, links[node]);
+		
+		return node;
+	}
+	
+	private int addNode()
+	{
+		if(nodeCount == counts.length)
+		{
+			links = Arrays.copyOf(links, nodeCount*2);
+			counts = Arrays.copyOf(counts, nodeCount*2);
+			parents = Arrays.copyOf(parents, nodeCount*2);
+			nodeBoxes = Arrays.copyOf(nodeBoxes, nodeCount*8);
+		}
+		
+		return nodeCount++;
+	}
+	
+	private void fitLeaf(int node)
+	{
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		
+		for(int i = links[node]; i < links[node]+counts[node]; i++)
+		{
+			int box = order[i]*4;
+			
+			minX = Math.min(minX, boxes[box]);
+			minY = Math.min(minY, boxes[box+1]);
+			maxX = Math.max(maxX, boxes[box+2]);
+			maxY = Math.max(maxY, boxes[box+3]);
+		}
+		
+		setNodeBox(node, minX, minY, maxX, maxY);
+	}
+	
+	private void union(int node, int left, int right)
+	{
+		setNodeBox(node, Math.min(nodeBoxes[left*4], nodeBoxes[right*4]), Math.min(nodeBoxes[left*4+1], nodeBoxes[right*4+1]),
+				Math.max(nodeBoxes[left*4+2], nodeBoxes[right*4+2]), Math.max(nodeBoxes[left*4+3], nodeBoxes[right*4+3]));
+	}
+	
+	private void setNodeBox(int node, double minX, double minY, double maxX, double maxY)
+	{
+		nodeBoxes[node*4] = minX;
+		nodeBoxes[node*4+1] = minY;
+		nodeBoxes[node*4+2] = maxX;
+		nodeBoxes[node*4+3] = maxY;
+	}
+	
+	private boolean isEmpty(int box)
+	{
+		return !(boxes[box*4] <= boxes[box*4+2] && boxes[box*4+1] <= boxes[box*4+3]);
+	}
+	
+	private double centreX(int box)
+	{
+		return (boxes[box*4]+boxes[box*4+2])/2;
+	}
+	
+	private double centreY(int box)
+	{
+		return (boxes[box*4+1]+boxes[box*4+3])/2;
+	}
+	
+	private static boolean overlaps(double[] boxes, int box, double minX, double minY, double maxX, double maxY)
+	{
+		return boxes[box*4] <= maxX && boxes[box*4+2] >= minX && boxes[box*4+1] <= maxY && boxes[box*4+3] >= minY;
+	}
+}
@@ -0,0 +1,865 @@
+package shapescape;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/*
+ Draws a model's edges and vertex markers. Painting happens in two steps: prepare() gathers
+ the visible edges into short runs and the visible markers into lists, one of each per
+ selection state, and draw() strokes and fills them. The buffers are reused between frames,
+ so painting does not allocate per vertex once they have grown to the model's size.
+
+ Anything outside the visible area is culled before it reaches a run, runs of points that
+ fall within one pixel of each other are merged, and markers are hidden once they would be
+ too small to grab. When only a small part of an indexed model is visible, the edges and
+ vertices in view are looked up in its grids instead of walking every slot. Edges between a
+ selected and an unselected vertex are kept apart, one per run, and drawn with a gradient
+ from one color to the other.
+
+ Runs are cut after MAX_RUN segments and each is drawn with its own call; Java2D strokes one
+ long self-crossing path far more slowly than many short ones. The same runs can be routed to
+ the tiles of a grid over device space and drawn tile by tile, on several threads, with the
+ same result as drawing them all at once.
+ */
+public class ModelRenderer
+{
+	/*Markers whose grab box would be narrower than this many pixels are not drawn.*/
+	private static final double MIN_MARKER_PIXELS = 3;
+	
+	private static final int MAX_RUN = 128;
+	
+	private static final float EDGE_WIDTH = 2;
+	
+	/*
+	 Strokes narrower than this many pixels can't be drawn in tiles. Below one pixel Java2D switches
+	 to a thin line algorithm whose output near a clip edge depends on the clip, so tiles would not join up.
+	 */
+	static final double MIN_TILED_PIXELS = 1.1;
+	
+	/*Markers are filled this many at a time.*/
+	private static final int MARKER_BATCH = 256;
+	
+	/*Extra room, in pixels, given to bounds when routing, for rounding and stroke normalization.*/
+	private static final double ROUTE_SLACK = 2;
+	
+	/*The grids are asked for what is in view once it covers at most this much of the model.*/
+	private static final double GRID_COVERAGE = 0.25;
+	
+	private Color edgeColor = Color.WHITE;
+	private Color selectedEdgeColor = Color.ORANGE;
+	
+	private Color vertexColor = Color.RED;
+	private Color selectedVertexColor = Color.BLUE;
+	
+	private BasicStroke edgeStroke;
+	
+	private Runs edges;
+	private Runs selectedEdges;
+	
+	/*Runs of a single edge, each from its unselected vertex to its selected one.*/
+	private Runs boundaryEdges;
+	
+	private Points markers;
+	private Points selectedMarkers;
+	
+	private Path2D.Double path;
+	
+	/*Edges or vertices found in the grids.*/
+	private IntList found;
+	
+	/*
+	 While building edges, the list being extended, the last point added to it, and whether the
+	 last vertex was left out for being within a pixel of that point.
+	 */
+	private Runs run;
+	
+	private double penX, penY;
+	
+	private boolean pending;
+	
+	/*What the last prepare() kept and what it left out, for profiling.*/
+	private int edgesDrawn;
+	private int edgesCulled;
+	private int verticesDrawn;
+	
+	public ModelRenderer()
+	{
+		edgeStroke = new BasicStroke(EDGE_WIDTH, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+		
+		edges = new Runs();
+		selectedEdges = new Runs();
+		boundaryEdges = new Runs();
+		
+		markers = new Points();
+		selectedMarkers = new Points();
+		
+		path = new Path2D.Double();
+		
+		found = new IntList();
+	}
+	
+	/*
+	 Paints the model into g2d, which must already be set up with the model's view transform.
+	 */
+	public void paint(Graphics2D g2d, Model model)
+	{
+		if(prepare(g2d, model))
+			draw(g2d, path, null);
+	}
+	
+	/*
+	 Gathers what paint() would draw into g2d without drawing it. Returns false if nothing is visible.
+	 */
+	public boolean prepare(Graphics2D g2d, Model model)
+	{
+		edges.reset();
+		selectedEdges.reset();
+		boundaryEdges.reset();
+		
+		markers.reset();
+		selectedMarkers.reset();
+		
+		edgesDrawn = edgesCulled = verticesDrawn = 0;
+		
+		if(model.size() == 0)
+			return false;
+		
+		AffineTransform deviceSpace = g2d.getTransform();
+		
+		double pixelSize = 1/Math.sqrt(Math.abs(deviceSpace.getDeterminant()));
+		
+		Rectangle2D visible = getVisibleArea(g2d, deviceSpace);
+		
+		if(visible == null)
+			return false;
+		
+		double minScale = getMinimumScale(deviceSpace);
+		
+		/*Grow the area so edges and markers straddling its border are still drawn.*/
+		double margin = Vertex.HALF_RADIUS + 1;
+		
+		double minX = visible.getMinX()-margin;
+		double minY = visible.getMinY()-margin;
+		double maxX = visible.getMaxX()+margin;
+		double maxY = visible.getMaxY()+margin;
+		
+		/*
+		 Zoomed out far enough, a level of detail straying less than half a pixel from the polyline
+		 looks the same and has far fewer edges. Selected vertices always need their own edges.
+		 */
+		int[] slots = null;
+		
+		LevelOfDetail detail = model.getLevelOfDetail();
+		
+		if(detail != null && model.selectionEmpty())
+			slots = detail.getLevel(0.5/getMaximumScale(deviceSpace));
+		
+		Rectangle2D area = new Rectangle2D.Double(minX, minY, maxX-minX, maxY-minY);
+		
+		boolean useGrids = slots == null && isSmallPart(model, area);
+		
+		int walked;
+		
+		if(useGrids)
+		{
+			found.clear();
+			model.getEdgeGrid().query(area, found);
+			
+			walked = buildEdges(model, null, found, minX, minY, maxX, maxY, pixelSize);
+		}
+		else
+			walked = buildEdges(model, slots, null, minX, minY, maxX, maxY, pixelSize);
+		
+		/*Edges the level of detail or the grid left out count as culled.*/
+		edgesDrawn = walked - edgesCulled;
+		edgesCulled = model.size()-1 - edgesDrawn;
+		
+		if(Vertex.GRAB_RADIUS*minScale >= MIN_MARKER_PIXELS)
+		{
+			if(useGrids)
+			{
+				found.clear();
+				model.getVertexGrid().query(area, found);
+				
+				for(int i = 0; i < found.size(); i++)
+				{
+					int slot = found.get(i);
+					
+					(model.isSelected(slot) ? selectedMarkers : markers).add(model.getX(slot), model.getY(slot));
+				}
+			}
+			else
+				buildMarkers(model, minX, minY, maxX, maxY);
+		}
+		
+		verticesDrawn = markers.size() + selectedMarkers.size();
+		
+		return true;
+	}
+	
+	public int getEdgesDrawn()
+	{
+		return edgesDrawn;
+	}
+	
+	public int getEdgesCulled()
+	{
+		return edgesCulled;
+	}
+	
+	/*
+	 Vertex markers drawn by the last prepare(). The rest were off screen or too small to show.
+	 */
+	public int getVerticesDrawn()
+	{
+		return verticesDrawn;
+	}
+	
+	/*
+	 Sorts the prepared runs and markers into the tileSize square tiles covering a width by height
+	 device area. deviceSpace maps model space into that area.
+	 */
+	public TileRoutes route(AffineTransform deviceSpace, int width, int height, int tileSize)
+	{
+		TileRoutes routes = new TileRoutes(width, height, tileSize);
+		
+		double halfStroke = edgeStroke.getLineWidth()/2;
+		
+		double[] box = new double[4];
+		
+		for(int run = 0; run < edges.size(); run++)
+			routes.add(routes.edges, run, edges.getBox(run, box), halfStroke, deviceSpace);
+		
+		for(int run = 0; run < selectedEdges.size(); run++)
+			routes.add(routes.selectedEdges, run, selectedEdges.getBox(run, box), halfStroke, deviceSpace);
+		
+		for(int run = 0; run < boundaryEdges.size(); run++)
+			routes.add(routes.boundaryEdges, run, boundaryEdges.getBox(run, box), halfStroke, deviceSpace);
+		
+		for(int i = 0; i < markers.size(); i++)
+			routes.add(routes.markers, i, markers.getBox(i, box), 0, deviceSpace);
+		
+		for(int i = 0; i < selectedMarkers.size(); i++)
+			routes.add(routes.selectedMarkers, i, selectedMarkers.getBox(i, box), 0, deviceSpace);
+		
+		return routes;
+	}
+	
+	/*
+	 Draws what was routed to one tile. g2d must be set up the same way as for prepare(),
+	 apart from being shifted to the tile. Tiles may be drawn from several threads at once.
+	 */
+	public void drawTile(Graphics2D g2d, TileRoutes routes, int tile)
+	{
+		draw(g2d, new Path2D.Double(), new IntList[] {routes.edges[tile], routes.selectedEdges[tile],
+				routes.boundaryEdges[tile], routes.markers[tile], routes.selectedMarkers[tile]});
+	}
+	
+	/*
+	 Draws the prepared runs and markers, or only those listed in subsets, in the order edges,
+	 selected edges, boundary edges, markers, selected markers.
+	 */
+	private void draw(Graphics2D g2d, Path2D.Double path, IntList[] subsets)
+	{
+		Stroke normalStroke = g2d.getStroke();
+		
+		g2d.setStroke(edgeStroke);
+		
+		g2d.setPaint(edgeColor);
+		drawRuns(g2d, path, edges, subsets == null ? null : subsets[0]);
+		
+		g2d.setPaint(selectedEdgeColor);
+		drawRuns(g2d, path, selectedEdges, subsets == null ? null : subsets[1]);
+		
+		drawBoundaries(g2d, path, subsets == null ? null : subsets[2]);
+		
+		g2d.setStroke(normalStroke);
+		
+		g2d.setPaint(vertexColor);
+		fillMarkers(g2d, path, markers, subsets == null ? null : subsets[3]);
+		
+		g2d.setPaint(selectedVertexColor);
+		fillMarkers(g2d, path, selectedMarkers, subsets == null ? null : subsets[4]);
+	}
+	
+	/*
+	 Draws each boundary edge with a gradient from the edge color at its unselected vertex to
+	 the selected edge color at its selected one.
+	 */
+	private void drawBoundaries(Graphics2D g2d, Path2D.Double path, IntList subset)
+	{
+		int count = subset == null ? boundaryEdges.size() : subset.size();
+		
+		double[] ends = new double[4];
+		
+		for(int i = 0; i < count; i++)
+		{
+			int run = subset == null ? i : subset.get(i);
+			
+			boundaryEdges.getEnds(run, ends);
+			
+			if(ends[0] == ends[2] && ends[1] == ends[3])
+				g2d.setPaint(selectedEdgeColor);
+			else
+				g2d.setPaint(new GradientPaint((float)ends[0], (float)ends[1], edgeColor, (float)ends[2], (float)ends[3], selectedEdgeColor));
+			
+			path.reset();
+			
+			if(boundaryEdges.append(path, run))
+				g2d.draw(path);
+		}
+	}
+	
+	private static void drawRuns(Graphics2D g2d, Path2D.Double path, Runs runs, IntList subset)
+	{
+		int count = subset == null ? runs.size() : subset.size();
+		
+		for(int i = 0; i < count; i++)
+		{
+			int run = subset == null ? i : subset.get(i);
+			
+			path.reset();
+			
+			if(runs.append(path, run))
+				g2d.draw(path);
+		}
+	}
+	
+	private static void fillMarkers(Graphics2D g2d, Path2D.Double path, Points points, IntList subset)
+	{
+		double r = Vertex.HALF_RADIUS;
+		
+		int count = subset == null ? points.size() : subset.size();
+		
+		path.reset();
+		
+		for(int i = 0; i < count; i++)
+		{
+			int point = subset == null ? i : subset.get(i);
+			
+			double x = points.getX(point);
+			double y = points.getY(point);
+			
+			path.moveTo(x-r, y-r);
+			path.lineTo(x+r, y-r);
+			path.lineTo(x+r, y+r);
+			path.lineTo(x-r, y+r);
+			path.closePath();
+			
+			if((i+1) % MARKER_BATCH == 0 || i == count-1)
+			{
+				g2d.fill(path);
+				path.reset();
+			}
+		}
+	}
+	
+	/*
+	 Whether the edges of a model seen through deviceSpace are wide enough to be drawn in tiles.
+	 */
+	static boolean canTile(AffineTransform deviceSpace)
+	{
+		return EDGE_WIDTH*getMinimumScale(deviceSpace) >= MIN_TILED_PIXELS;
+	}
+	
+	/*
+	 Returns the smallest factor by which the transform stretches any direction.
+	 */
+	static double getMinimumScale(AffineTransform transform)
+	{
+		double a = transform.getScaleX();
+		double b = transform.getShearX();
+		double c = transform.getShearY();
+		double d = transform.getScaleY();
+		
+		double sum = a*a + b*b + c*c + d*d;
+		double det = a*d - b*c;
+		
+		return Math.sqrt(Math.max(0, (sum - Math.sqrt(Math.max(0, sum*sum - 4*det*det)))/2));
+	}
+	
+	/*
+	 Returns the largest factor by which the transform stretches any direction.
+	 */
+	static double getMaximumScale(AffineTransform transform)
+	{
+		double a = transform.getScaleX();
+		double b = transform.getShearX();
+		double c = transform.getShearY();
+		double d = transform.getScaleY();
+		
+		double sum = a*a + b*b + c*c + d*d;
+		double det = a*d - b*c;
+		
+		return Math.sqrt((sum + Math.sqrt(Math.max(0, sum*sum - 4*det*det)))/2);
+	}
+	
+	/*
+	 Returns the area of model space covered by the clip, or the whole device if there is none.
+	 */
+	private Rectangle2D getVisibleArea(Graphics2D g2d, AffineTransform deviceSpace)
+	{
+		Rectangle2D clip = g2d.getClipBounds();
+		
+		if(clip != null)
+			return clip;
+		
+		try
+		{
+			Rectangle device = g2d.getDeviceConfiguration().getBounds();
+			
+			return deviceSpace.createInverse().createTransformedShape(device).getBounds2D();
+		} catch (NoninvertibleTransformException e)
+		{
+			return null;
+		}
+	}
+	
+	/*
+	 Whether the area covers so little of an indexed model that looking up what lies in it is
+	 cheaper than walking the model.
+	 */
+	private static boolean isSmallPart(Model model, Rectangle2D area)
+	{
+		if(!model.isIndexed())
+			return false;
+		
+		double[] extents = model.getExtents();
+		
+		double width = extents[2]-extents[0];
+		double height = extents[3]-extents[1];
+		
+		double overlapWidth = Math.min(extents[2], area.getMaxX()) - Math.max(extents[0], area.getMinX());
+		double overlapHeight = Math.min(extents[3], area.getMaxY()) - Math.max(extents[1], area.getMinY());
+		
+		/*A model spread along a line has no area to compare against.*/
+		if(!(width > 0 && height > 0))
+			return false;
+		
+		return Math.max(0, overlapWidth)*Math.max(0, overlapHeight) <= GRID_COVERAGE*width*height;
+	}
+	
+	/*
+	 Builds the runs for the edges of the model and returns how many were looked at. The edges
+	 are those listed in edgeList, each running from its slot to the next, or else those between
+	 consecutive slots listed in slots, or else between every slot.
+	 */
+	private int buildEdges(Model model, int[] slots, IntList edgeList, double minX, double minY, double maxX, double maxY, double pixelSize)
+	{
+		int count;
+		
+		if(edgeList != null)
+			count = edgeList.size();
+		else
+			count = (slots == null ? model.size() : slots.length) - 1;
+		
+		double lastX = 0;
+		double lastY = 0;
+		boolean lastSelected = false;
+		
+		/*The slot the previous edge ended at; an edge starting anywhere else begins a new chain.*/
+		int previous = -1;
+		
+		/*Each list's run is continued for as long as consecutive visible edges share a selection state.*/
+		run = null;
+		pending = false;
+		
+		for(int k = 0; k < count; k++)
+		{
+			int fromSlot;
+			int toSlot;
+			
+			if(edgeList != null)
+			{
+				fromSlot = edgeList.get(k);
+				toSlot = fromSlot+1;
+			}
+			else if(slots != null)
+			{
+				fromSlot = slots[k];
+				toSlot = slots[k+1];
+			}
+			else
+			{
+				fromSlot = k;
+				toSlot = k+1;
+			}
+			
+			if(fromSlot != previous)
+			{
+				endRun(lastX, lastY);
+				
+				lastX = model.getX(fromSlot);
+				lastY = model.getY(fromSlot);
+				lastSelected = model.isSelected(fromSlot);
+			}
+			
+			previous = toSlot;
+			
+			double x = model.getX(toSlot);
+			double y = model.getY(toSlot);
+			boolean selected = model.isSelected(toSlot);
+			
+			boolean culled = Math.max(lastX, x) < minX || Math.min(lastX, x) > maxX
+					|| Math.max(lastY, y) < minY || Math.min(lastY, y) > maxY;
+			
+			if(culled)
+			{
+				edgesCulled++;
+				
+				endRun(lastX, lastY);
+			}
+			else if(selected == lastSelected)
+			{
+				Runs runs = selected ? selectedEdges : edges;
+				
+				if(run != runs)
+				{
+					runs.moveTo(lastX, lastY);
+					
+					run = runs;
+					penX = lastX;
+					penY = lastY;
+				}
+				
+				if(Math.abs(x-penX) >= pixelSize || Math.abs(y-penY) >= pixelSize)
+				{
+					run.lineTo(x, y);
+					
+					penX = x;
+					penY = y;
+					pending = false;
+				}
+				else
+					pending = true;
+			}
+			else
+			{
+				/*Edges between a selected and an unselected vertex get a run of their own.*/
+				endRun(lastX, lastY);
+				
+				if(selected)
+				{
+					boundaryEdges.moveTo(lastX, lastY);
+					boundaryEdges.lineTo(x, y);
+				}
+				else
+				{
+					boundaryEdges.moveTo(x, y);
+					boundaryEdges.lineTo(lastX, lastY);
+				}
+			}
+			
+			lastX = x;
+			lastY = y;
+			lastSelected = selected;
+		}
+		
+		endRun(lastX, lastY);
+		
+		return Math.max(count, 0);
+	}
+	
+	/*
+	 Ends the run being extended, first adding the last vertex if it was left out for being
+	 within a pixel of the one before, so the run still reaches it.
+	 */
+	private void endRun(double lastX, double lastY)
+	{
+		if(pending)
+			run.lineTo(lastX, lastY);
+		
+		run = null;
+		pending = false;
+	}
+	
+	private void buildMarkers(Model model, double minX, double minY, double maxX, double maxY)
+	{
+		for(int i = 0; i < model.size(); i++)
+		{
+			double x = model.getX(i);
+			double y = model.getY(i);
+			
+			if(x < minX || x > maxX || y < minY || y > maxY)
+				continue;
+			
+			(model.isSelected(i) ? selectedMarkers : markers).add(x, y);
+		}
+	}
+	
+	/*
+	 Polylines stored back to back, with the bounding box of each.
+	 */
+	private static class Runs
+	{
+		private double[] coords = new double[512];
+		private int points;
+		
+		private int[] starts = new int[64];
+		private double[] boxes = new double[256];
+		private int count;
+		
+		void reset()
+		{
+			points = 0;
+			count = 0;
+		}
+		
+		int size()
+		{
+			return count;
+		}
+		
+		void moveTo(double x, double y)
+		{
+			/*A run that never got past its first point draws nothing, so its space is reused.*/
+			if(count > 0 && points-starts[count-1] < 2)
+				points = starts[--count];
+			
+			if(count == starts.length)
+			{
+				starts = Arrays.copyOf(starts, count*2);
+				boxes = Arrays.copyOf(boxes, count*8);
+			}
+			
+			starts[count] = points;
+			
+			boxes[4*count] = boxes[4*count+2] = x;
+			boxes[4*count+1] = boxes[4*count+3] = y;
+			
+			count++;
+			
+			addPoint(x, y);
+		}
+		
+		void lineTo(double x, double y)
+		{
+			if(points-starts[count-1] > MAX_RUN)
+				moveTo(coords[2*points-2], coords[2*points-1]);
+			
+			addPoint(x, y);
+			
+			int box = 4*(count-1);
+			
+			if(x < boxes[box])
+				boxes[box] = x;
+			if(y < boxes[box+1])
+				boxes[box+1] = y;
+			if(x > boxes[box+2])
+				boxes[box+2] = x;
+			if(y > boxes[box+3])
+				boxes[box+3] = y;
+		}
+		
+		private void addPoint(double x, double y)
+		{
+			if(2*points == coords.length)
+				coords = Arrays.copyOf(coords, coords.length*2);
+			
+			coords[2*points] = x;
+			coords[2*points+1] = y;
+			
+			points++;
+		}
+		
+		/*
+		 Adds the run to path. Returns false, adding nothing, if it has no segments.
+		 */
+		boolean append(Path2D.Double path, int run)
+		{
+			int start = starts[run];
+			int end = run+1 < count ? starts[run+1] : points;
+			
+			if(end-start < 2)
+				return false;
+			
+			path.moveTo(coords[2*start], coords[2*start+1]);
+			
+			for(int i = start+1; i < end; i++)
+				path.lineTo(coords[2*i], coords[2*i+1]);
+			
+			return true;
+		}
+		
+		/*
+		 Fills ends with the first and last points of the run, {x0, y0, x1, y1}, and returns it.
+		 */
+		double[] getEnds(int run, double[] ends)
+		{
+			int start = starts[run];
+			int end = (run+1 < count ? starts[run+1] : points) - 1;
+			
+			ends[0] = coords[2*start];
+			ends[1] = coords[2*start+1];
+			ends[2] = coords[2*end];
+			ends[3] = coords[2*end+1];
+			
+			return ends;
+		}
+		
+		/*
+		 Fills box with the bounds of the run and returns it.
+		 */
+		double[] getBox(int run, double[] box)
+		{
+			System.arraycopy(boxes, 4*run, box, 0, 4);
+			
+			return box;
+		}
+	}
+	
+	private static class Points
+	{
+		private double[] coords = new double[512];
+		private int count;
+		
+		void reset()
+		{
+			count = 0;
+		}
+		
+		int size()
+		{
+			return count;
+		}
+		
+		void add(double x, double y)
+		{
+			if(2*count == coords.length)
+				coords = Arrays.copyOf(coords, coords.length*2);
+			
+			coords[2*count] = x;
+			coords[2*count+1] = y;
+			
+			count++;
+		}
+		
+		double getX(int i)
+		{
+			return coords[2*i];
+		}
+		
+		double getY(int i)
+		{
+			return coords[2*i+1];
+		}
+		
+		/*
+		 Fills box with the bounds of point i's marker and returns it.
+		 */
+		double[] getBox(int i, double[] box)
+		{
+			double r = Vertex.HALF_RADIUS;
+			
+			box[0] = coords[2*i]-r;
+			box[1] = coords[2*i+1]-r;
+			box[2] = coords[2*i]+r;
+			box[3] = coords[2*i+1]+r;
+			
+			return box;
+		}
+	}
+	
+	/*
+	 For each tile of a grid over device space, the runs and markers whose bounds reach into it.
+	 Tiles are numbered row by row.
+	 */
+	public static class TileRoutes
+	{
+		private int tileSize;
+		private int columns;
+		private int rows;
+		
+		private IntList[] edges;
+		private IntList[] selectedEdges;
+		private IntList[] boundaryEdges;
+		private IntList[] markers;
+		private IntList[] selectedMarkers;
+		
+		private double[] corners = new double[8];
+		
+		private TileRoutes(int width, int height, int tileSize)
+		{
+			this.tileSize = tileSize;
+			this.columns = (width+tileSize-1)/tileSize;
+			this.rows = (height+tileSize-1)/tileSize;
+			
+			edges = lists(columns*rows);
+			selectedEdges = lists(columns*rows);
+			boundaryEdges = lists(columns*rows);
+			markers = lists(columns*rows);
+			selectedMarkers = lists(columns*rows);
+		}
+		
+		private static IntList[] lists(int count)
+		{
+			IntList[] lists = new IntList[count];
+			
+			for(int i = 0; i < count; i++)
+				lists[i] = new IntList();
+			
+			return lists;
+		}
+		
+		public int getTileCount()
+		{
+			return columns*rows;
+		}
+		
+		public int getColumns()
+		{
+			return columns;
+		}
+		
+		public int getTileSize()
+		{
+			return tileSize;
+		}
+		
+		/*
+		 Adds index to every tile touched by box, a model space {minX, minY, maxX, maxY} grown by
+		 pad on each side, once it is mapped through deviceSpace.
+		 */
+		private void add(IntList[] tiles, int index, double[] box, double pad, AffineTransform deviceSpace)
+		{
+			corners[0] = box[0]-pad;
+			corners[1] = box[1]-pad;
+			corners[2] = box[2]+pad;
+			corners[3] = box[1]-pad;
+			corners[4] = box[2]+pad;
+			corners[5] = box[3]+pad;
+			corners[6] = box[0]-pad;
+			corners[7] = box[3]+pad;
+			
+			deviceSpace.transform(corners, 0, corners, 0, 4);
+			
+			double minX = Math.min(Math.min(corners[0], corners[2]), Math.min(corners[4], corners[6]))-ROUTE_SLACK;
+			double minY = Math.min(Math.min(corners[1], corners[3]), Math.min(corners[5], corners[7]))-ROUTE_SLACK;
+			double maxX = Math.max(Math.max(corners[0], corners[2]), Math.max(corners[4], corners[6]))+ROUTE_SLACK;
+			double maxY = Math.max(Math.max(corners[1], corners[3]), Math.max(corners[5], corners[7]))+ROUTE_SLACK;
+			
+			if(maxX < 0 || maxY < 0 || minX >= columns*tileSize || minY >= rows*tileSize)
+				return;
+			
+			int firstColumn = Math.max(0, (int)Math.floor(minX/tileSize));
+			int lastColumn = Math.min(columns-1, (int)Math.floor(maxX/tileSize));
+			int firstRow = Math.max(0, (int)Math.floor(minY/tileSize));
+			int lastRow = Math.min(rows-1, (int)Math.floor(maxY/tileSize));
+			
+			for(int row = firstRow; row <= lastRow; row++)
+			{
+				for(int column = firstColumn; column <= lastColumn; column++)
+					tiles[row*columns+column].add(index);
+			}
+		}
+	}
+}
@@ -3,12 +3,7 @@ package shapescape;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
 
 import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
@@ -19,6 +14,11 @@ import javax.swing.JOptionPane;
 import javax.swing.JToggleButton;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import shapescape.operation.LoadOperation;
+import shapescape.operation.SaveOperation;
+import shapescape.operation.SimplifyOperation;
+import shapescape.operation.TransformOperation;
+
 public class ModelerToolBar extends JMenuBar implements ActionListener
 {
 	private static final long serialVersionUID = 2599112429170731548L;
@@ -35,20 +35,29 @@ public class ModelerToolBar extends JMenuBar implements ActionListener
 	private JMenuItem saveItem;
 	private JMenuItem saveAsItem;
 	private JMenuItem openItem;
+	private JMenuItem importItem;
 	
 	// Edit
 	private JMenu editMenu;
 	
+	private JMenuItem newShapeItem;
 	private JMenuItem scaleItem;
+	private JMenuItem simplifyItem;
+	private JMenuItem simplifyAreaItem;
 	private JMenuItem undoItem;
+	private JMenuItem redoItem;
 	
 	private JMenuItem setGridItem;
+	private JToggleButton snapToVerticesItem;
+	private JToggleButton snapToEdgesItem;
 	
 	// View
 	private JMenu viewMenu;
 	
 	private JToggleButton showGridItem;
 	private JToggleButton showBoundsItem;
+	private JToggleButton tiledRenderingItem;
+	private JToggleButton showStatsItem;
 
 	public ModelerToolBar(ShapeScape modeler)
 	{
@@ -64,42 +73,73 @@ public class ModelerToolBar extends JMenuBar implements ActionListener
 		saveItem = new JMenuItem("Save");
 		saveAsItem = new JMenuItem("Save As...");
 		openItem = new JMenuItem("Open");
+		importItem = new JMenuItem("Import...");
 		
 		newItem.addActionListener(this);
 		saveItem.addActionListener(this);
 		saveAsItem.addActionListener(this);
 		openItem.addActionListener(this);
+		importItem.addActionListener(this);
 		
 		fileMenu.add(newItem);
 		fileMenu.addSeparator();
 		fileMenu.add(saveItem);
 		fileMenu.add(saveAsItem);
 		fileMenu.add(openItem);
+		fileMenu.add(importItem);
 		
 		editMenu = new JMenu("Edit");
 		
+		newShapeItem = new JMenuItem("New Shape");
 		scaleItem = new JMenuItem("Scale");
+		simplifyItem = new JMenuItem("Simplify (Douglas-Peucker)...");
+		simplifyAreaItem = new JMenuItem("Simplify (Visvalingam-Whyatt)...");
 		undoItem = new JMenuItem("Undo");
+		redoItem = new JMenuItem("Redo");
+		setGridItem = new JMenuItem("Grid Size...");
+		snapToVerticesItem = new JCheckBox("Snap to Vertices");
+		snapToEdgesItem = new JCheckBox("Snap to Edges");
 		
+		newShapeItem.addActionListener(this);
 		scaleItem.addActionListener(this);
+		simplifyItem.addActionListener(this);
+		simplifyAreaItem.addActionListener(this);
 		undoItem.addActionListener(this);
+		redoItem.addActionListener(this);
+		setGridItem.addActionListener(this);
+		snapToVerticesItem.addActionListener(this);
+		snapToEdgesItem.addActionListener(this);
 		
+		editMenu.add(newShapeItem);
 		editMenu.add(scaleItem);
+		editMenu.add(simplifyItem);
+		editMenu.add(simplifyAreaItem);
+		editMenu.add(setGridItem);
+		editMenu.add(snapToVerticesItem);
+		editMenu.add(snapToEdgesItem);
 		editMenu.addSeparator();
 		editMenu.add(undoItem);
+		editMenu.add(redoItem);
 		
 		viewMenu = new JMenu("View");
 		
 		showGridItem = new JCheckBox("Show Grid");
 		showBoundsItem = new JCheckBox("Show Bounding Box");
+		tiledRenderingItem = new JCheckBox("Tiled Rendering");
+		showStatsItem = new JCheckBox("Show Performance Stats");
 		
 		showGridItem.addActionListener(this);
 		showBoundsItem.addActionListener(this);
+		tiledRenderingItem.addActionListener(this);
+		showStatsItem.addActionListener(this);
 		
 		showGridItem.setSelected(true);
 		
 		viewMenu.add(showGridItem);
 		viewMenu.add(showBoundsItem);
+		viewMenu.addSeparator();
+		viewMenu.add(tiledRenderingItem);
+		viewMenu.add(showStatsItem);
 		
 		this.add(fileMenu);
 		this.add(editMenu);
@@ -109,6 +149,14 @@ public class ModelerToolBar extends JMenuBar implements ActionListener
 	@Override
 	public void actionPerformed(ActionEvent e)
 	{
+		/*Only view and snapping options can change while a background operation owns the model.*/
+		boolean viewOption = e.getSource() == showGridItem || e.getSource() == showBoundsItem
+				|| e.getSource() == tiledRenderingItem || e.getSource() == showStatsItem
+				|| e.getSource() == snapToVerticesItem || e.getSource() == snapToEdgesItem;
+		
+		if(modeler.isBusy() && !viewOption)
+			return;
+		
 		if(e.getSource() == showGridItem)
 		{
 			modeler.setShowGrid(showGridItem.isSelected());
@@ -119,6 +167,27 @@ public class ModelerToolBar extends JMenuBar implements ActionListener
 			modeler.setShowBounds(showBoundsItem.isSelected());
 			modeler.repaint();
 		}
+		else if(e.getSource() == tiledRenderingItem)
+		{
+			modeler.setTiledRendering(tiledRenderingItem.isSelected());
+		}
+		else if(e.getSource() == showStatsItem)
+		{
+			modeler.setShowStats(showStatsItem.isSelected());
+			modeler.repaint();
+		}
+		else if(e.getSource() == snapToVerticesItem)
+		{
+			modeler.setSnapToVertices(snapToVerticesItem.isSelected());
+		}
+		else if(e.getSource() == snapToEdgesItem)
+		{
+			modeler.setSnapToEdges(snapToEdgesItem.isSelected());
+		}
+		else if(e.getSource() == newShapeItem)
+		{
+			modeler.addModel(new Model());
+		}
 		else if(e.getSource() == scaleItem)
 		{
 			String result = JOptionPane.showInputDialog(modeler, "Select the bounds to scale to", "Object Scaling", JOptionPane.PLAIN_MESSAGE);
@@ -134,16 +203,67 @@ public class ModelerToolBar extends JMenuBar implements ActionListener
 			double xScale = newBounds.getWidth()/bounds.getWidth();
 			double yScale = newBounds.getHeight()/bounds.getHeight();
 			
-			modeler.getModel().applyDirectScaling(xScale, yScale);
+			TransformOperation.scale(modeler, xScale, yScale).start();
+		}
+		else if(e.getSource() == simplifyItem || e.getSource() == simplifyAreaItem)
+		{
+			int method = e.getSource() == simplifyItem ? Simplifier.DOUGLAS_PEUCKER : Simplifier.VISVALINGAM_WHYATT;
+			
+			String result = JOptionPane.showInputDialog(modeler, "Tolerance, in model units", "Simplify", JOptionPane.PLAIN_MESSAGE);
+			
+			if(result == null)
+				return;
+			
+			double tolerance;
+			
+			try
+			{
+				tolerance = Double.parseDouble(result.trim());
+			} catch (NumberFormatException e1)
+			{
+				tolerance = Double.NaN;
+			}
+			
+			if(!(tolerance >= 0 && tolerance < Double.POSITIVE_INFINITY))
+			{
+				JOptionPane.showMessageDialog(modeler, "Tolerance must be a number no less than zero.", "Simplify", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			
+			new SimplifyOperation(modeler, method, tolerance).start();
+		}
+		else if(e.getSource() == setGridItem)
+		{
+			String result = JOptionPane.showInputDialog(modeler, "Grid size", Integer.toString(modeler.getGridSize()));
+			
+			if(result == null)
+				return;
+			
+			try
+			{
+				int gridSize = Integer.parseInt(result.trim());
+				
+				if(gridSize > 0)
+				{
+					modeler.setGridSize(gridSize);
+					modeler.repaint();
+				}
+			} catch (NumberFormatException e1)
+			{
+				JOptionPane.showMessageDialog(modeler, "Grid size must be a whole number.", "Grid Size", JOptionPane.ERROR_MESSAGE);
+			}
 		}
 		else if(e.getSource() == undoItem)
 		{
 			modeler.undoLastCommand();
 		}
+		else if(e.getSource() == redoItem)
+		{
+			modeler.redoLastCommand();
+		}
 		else if(e.getSource() == newItem)
 		{
-			modeler.getVertices().clear();
-			modeler.resetViewspace();
+			modeler.resetScene();
 		}
 		else if(e.getSource() == saveItem || e.getSource() == saveAsItem)
 		{
@@ -157,29 +277,11 @@ public class ModelerToolBar extends JMenuBar implements ActionListener
 					return;
 				
 				saveFile = browser.getSelectedFile();
-				
-				modeler.setSaveFile(saveFile);
 			}
 			
-			try 
-			{
-				BufferedWriter out = new BufferedWriter(new FileWriter(saveFile));
-				
-				Rectangle bounds = modeler.getModel().getBounds();
-				
-				for(Vertex v : modeler.getVertices())
-				{
-					out.write((v.getX()-bounds.getX()) + "," + (v.getY()-bounds.getY()));
-					out.newLine();
-				}
-				
-				out.close();
-			} catch (IOException e1)
-			{
-				e1.printStackTrace();
-			}
+			new SaveOperation(modeler, saveFile).start();
 		}
-		else if(e.getSource() == openItem)
+		else if(e.getSource() == openItem || e.getSource() == importItem)
 		{
 			int value = browser.showOpenDialog(modeler);
 			
@@ -188,31 +290,7 @@ public class ModelerToolBar extends JMenuBar implements ActionListener
 			
 			File saveFile = browser.getSelectedFile();
 			
-			modeler.resetScene();
-			
-			try
-			{
-				BufferedReader br = new BufferedReader(new FileReader(saveFile));
-				
-				String line;
-				
-				int offset = modeler.getGridSize();
-				
-				while((line = br.readLine()) != null)
-				{
-					String[] coords = line.split(",");
-					
-					double x = new Double(coords[0]) + offset;
-					double y = new Double(coords[1]) + offset;
-					
-					modeler.createVertexAt(x, y);
-				}
-				
-				br.close();
-			} catch (IOException e1)
-			{
-				e1.printStackTrace();
-			}
+			new LoadOperation(modeler, saveFile, modeler.getGridSize(), e.getSource() == importItem).start();
 		}
 	}
 }
@@ -0,0 +1,108 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ Applies an affine transform to coordinate columns in parallel. The range is split in half
+ until pieces are small enough, then each piece is copied into an interleaved buffer, run through
+ AffineTransform's batch transform, and copied back. The extents of the result are gathered in
+ the same pass and returned as {minX, minY, maxX, maxY}.
+ */
+public class ParallelTransform extends RecursiveTask<double[]>
+{
+	private static final long serialVersionUID = -3470271530834524118L;
+	
+	/*Ranges at or below this many points are transformed on the calling thread.*/
+	private static final int LEAF_SIZE = 1 << 14;
+	
+	private AffineTransform transform;
+	
+	private double[] xs;
+	private double[] ys;
+	
+	private int from;
+	private int to;
+	
+	private ParallelTransform(AffineTransform transform, double[] xs, double[] ys, int from, int to)
+	{
+		this.transform = transform;
+		this.xs = xs;
+		this.ys = ys;
+		this.from = from;
+		this.to = to;
+	}
+	
+	public static double[] transform(AffineTransform transform, double[] xs, double[] ys, int from, int to)
+	{
+		ParallelTransform task = new ParallelTransform(transform, xs, ys, from, to);
+		
+		if(to-from <= LEAF_SIZE)
+			return task.compute();
+		
+		return ForkJoinPool.commonPool().invoke(task);
+	}
+	
+	public static double[] emptyExtents()
+	{
+		return new double[] {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+	}
+	
+	public static double[] mergeExtents(double[] a, double[] b)
+	{
+		return new double[] {Math.min(a[0], b[0]), Math.min(a[1], b[1]), Math.max(a[2], b[2]), Math.max(a[3], b[3])};
+	}
+	
+	@Override
+	protected double[] compute()
+	{
+		if(to-from > LEAF_SIZE)
+		{
+			int mid = (from+to) >>> 1;
+			
+			ParallelTransform left = new ParallelTransform(transform, xs, ys, from, mid);
+			ParallelTransform right = new ParallelTransform(transform, xs, ys, mid, to);
+			
+			left.fork();
+			
+			double[] rightExtents = right.compute();
+			
+			return mergeExtents(left.join(), rightExtents);
+		}
+		
+		int count = to-from;
+		
+		double[] points = new double[count*2];
+		
+		for(int i = 0; i < count; i++)
+		{
+			points[2*i] = xs[from+i];
+			points[2*i+1] = ys[from+i];
+		}
+		
+		transform.transform(points, 0, points, 0, count);
+		
+		double[] extents = emptyExtents();
+		
+		for(int i = 0; i < count; i++)
+		{
+			double x = points[2*i];
+			double y = points[2*i+1];
+			
+			xs[from+i] = x;
+			ys[from+i] = y;
+			
+			if(x < extents[0])
+				extents[0] = x;
+			if(y < extents[1])
+				extents[1] = y;
+			if(x > extents[2])
+				extents[2] = x;
+			if(y > extents[3])
+				extents[3] = y;
+		}
+		
+		return extents;
+	}
+}
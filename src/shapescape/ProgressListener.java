@@ -0,0 +1,10 @@
+package shapescape;
+
+/*
+ Receives progress from long running model and file operations. Implementations may throw
+ an unchecked exception, such as CancellationException, to abort the operation.
+ */
+public interface ProgressListener
+{
+	public void progress(long done, long total);
+}
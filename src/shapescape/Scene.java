@@ -0,0 +1,291 @@
+package shapescape;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ The models making up a drawing, each placed by its own transform, in drawing order. One of
+ them is active and receives new vertices and whole-model operations.
+
+ The scene space box of every model is kept in a ModelHierarchy, so painting and hit-testing
+ can pass over models that lie outside the area they are looking at without touching their
+ vertices. Models are edited directly and tell their scene when they change; the boxes of the
+ models that did are recomputed the next time the hierarchy is used. A model can only be part
+ of one scene at a time.
+ */
+public class Scene
+{
+	/*Room around each model's extents for its markers, edge strokes and its bounds box, which is rounded out to whole units.*/
+	private static final double MARGIN = Vertex.GRAB_RADIUS;
+	
+	private List<Model> models;
+	
+	private Model active;
+	
+	private ModelHierarchy hierarchy;
+	
+	private Map<Model, Integer> indexes;
+	
+	private double[] boxes = new double[0];
+	
+	/*Models whose boxes are out of date, by index.*/
+	private BitSet changed;
+	
+	private boolean rebuild = true;
+	
+	private long modCount;
+	
+	private double[] corners = new double[8];
+	
+	public Scene()
+	{
+		this(new Model());
+	}
+	
+	public Scene(Model model)
+	{
+		models = new ArrayList<Model>();
+		indexes = new IdentityHashMap<Model, Integer>();
+		hierarchy = new ModelHierarchy();
+		
+		changed = new BitSet();
+		
+		add(model);
+	}
+	
+	/*
+	 Adds a model on top of the others and makes it the active one.
+	 */
+	public void add(Model model)
+	{
+		if(model.getScene() != null)
+			throw new IllegalArgumentException("Model is already part of a scene");
+		
+		model.setScene(this);
+		
+		indexes.put(model, models.size());
+		models.add(model);
+		active = model;
+		
+		rebuild = true;
+		modCount++;
+	}
+	
+	/*
+	 Removes a model. The last model can't be removed, so there is always one to draw into.
+	 */
+	public boolean remove(Model model)
+	{
+		if(models.size() == 1 || !models.remove(model))
+			return false;
+		
+		model.setScene(null);
+		
+		indexes.clear();
+		
+		for(int i = 0; i < models.size(); i++)
+			indexes.put(models.get(i), i);
+		
+		if(active == model)
+			active = models.get(models.size()-1);
+		
+		rebuild = true;
+		modCount++;
+		
+		return true;
+	}
+	
+	public List<Model> getModels()
+	{
+		return Collections.unmodifiableList(models);
+	}
+	
+	public int size()
+	{
+		return models.size();
+	}
+	
+	/*
+	 Returns the position of a model in drawing order, or -1 if it isn't part of this scene.
+	 */
+	public int indexOf(Model model)
+	{
+		Integer index = indexes.get(model);
+
+		return index == null ? -1 : index;
+	}
+
+	public Model getActive()
+	{
+		return active;
+	}
+	
+	public void setActive(Model model)
+	{
+		if(model.getScene() != this)
+			throw new IllegalArgumentException("Model is not part of this scene");
+		
+		active = model;
+	}
+	
+	/*
+	 Changes whenever a model is added or removed, or any model is edited or moved.
+	 */
+	public long getModificationCount()
+	{
+		update();
+		
+		return modCount;
+	}
+	
+	/*
+	 Adds every model whose box, in scene space, overlaps the area to result, in drawing order.
+	 */
+	public void query(Rectangle2D area, List<Model> result)
+	{
+		update();
+		
+		IntList found = new IntList();
+		
+		hierarchy.query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(), found);
+		
+		found.sort();
+		
+		for(int i = 0; i < found.size(); i++)
+			result.add(models.get(found.get(i)));
+	}
+	
+	/*
+	 Returns the area covered by the vertices of all models in scene space, or null if there are none.
+	 */
+	public Rectangle2D getBounds()
+	{
+		Rectangle2D bounds = null;
+		
+		for(Model model : models)
+		{
+			if(model.size() == 0)
+				continue;
+			
+			double[] extents = model.getExtents();
+			
+			Rectangle2D exact = new Rectangle2D.Double(extents[0], extents[1], extents[2]-extents[0], extents[3]-extents[1]);
+			
+			Rectangle2D modelBounds = model.getTransform().createTransformedShape(exact).getBounds2D();
+			
+			if(bounds == null)
+				bounds = modelBounds;
+			else
+				bounds.add(modelBounds);
+		}
+		
+		return bounds;
+	}
+	
+	public int getVertexCount()
+	{
+		int count = 0;
+		
+		for(Model model : models)
+			count += model.size();
+		
+		return count;
+	}
+	
+	public int getSelectedCount()
+	{
+		int count = 0;
+		
+		for(Model model : models)
+			count += model.getSelectedCount();
+		
+		return count;
+	}
+	
+	public void clearSelection()
+	{
+		for(Model model : models)
+			model.clearSelection();
+	}
+	
+	/*
+	 Called by a model of this scene whenever it changes.
+	 */
+	void modelChanged(Model model)
+	{
+		changed.set(indexes.get(model));
+	}
+	
+	/*
+	 Recomputes the boxes of models that changed since they were last looked at, and refits the
+	 hierarchy around them. Adding or removing models rebuilds it.
+	 */
+	private void update()
+	{
+		int count = models.size();
+		
+		if(rebuild)
+		{
+			boxes = new double[count*4];
+			
+			for(int i = 0; i < count; i++)
+				computeBox(i);
+			
+			hierarchy.build(boxes, count);
+			
+			changed.clear();
+			rebuild = false;
+			
+			return;
+		}
+		
+		if(changed.isEmpty())
+			return;
+		
+		for(int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i+1))
+			computeBox(i);
+		
+		hierarchy.refit(boxes, changed);
+		
+		changed.clear();
+		
+		modCount++;
+	}
+	
+	private void computeBox(int i)
+	{
+		Model model = models.get(i);
+		
+		if(model.size() == 0)
+		{
+			boxes[i*4] = boxes[i*4+1] = Double.POSITIVE_INFINITY;
+			boxes[i*4+2] = boxes[i*4+3] = Double.NEGATIVE_INFINITY;
+			
+			return;
+		}
+		
+		double[] extents = model.getExtents();
+		
+		double minX = extents[0]-MARGIN;
+		double minY = extents[1]-MARGIN;
+		double maxX = extents[2]+MARGIN;
+		double maxY = extents[3]+MARGIN;
+		
+		corners[0] = minX; corners[1] = minY;
+		corners[2] = maxX; corners[3] = minY;
+		corners[4] = maxX; corners[5] = maxY;
+		corners[6] = minX; corners[7] = maxY;
+		
+		model.getTransform().transform(corners, 0, corners, 0, 4);
+		
+		boxes[i*4] = Math.min(Math.min(corners[0], corners[2]), Math.min(corners[4], corners[6]));
+		boxes[i*4+1] = Math.min(Math.min(corners[1], corners[3]), Math.min(corners[5], corners[7]));
+		boxes[i*4+2] = Math.max(Math.max(corners[0], corners[2]), Math.max(corners[4], corners[6]));
+		boxes[i*4+3] = Math.max(Math.max(corners[1], corners[3]), Math.max(corners[5], corners[7]));
+	}
+}
@@ -0,0 +1,531 @@
+package shapescape;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ Draws a whole scene: the background, the grid, and every model with its bounds, in order.
+ It needs no component or display, so the same code paints the modeler's static layer and
+ renders previews on headless machines. Models whose box in the scene's hierarchy misses the
+ view are skipped without looking at their vertices.
+
+ With tiling on, an image is split into TILE_SIZE squares which are rendered in parallel.
+ Each model's runs and markers are gathered once and routed to the tiles they touch, and the
+ output is the same as without tiling.
+ */
+public class SceneRenderer
+{
+	private static final int TILE_SIZE = 256;
+	
+	/*Device pixels added around the view when looking for models, for strokes that reach past the bounds.*/
+	private static final double VIEW_MARGIN = 2;
+	
+	private Color background = Color.BLACK;
+	private Color boundsColor = Color.GREEN;
+	
+	private GridLayer gridLayer;
+	
+	/*One per model drawn, since tiles draw every model's prepared runs after all were prepared.*/
+	private List<ModelRenderer> modelRenderers;
+	
+	private List<Model> visible;
+	
+	private boolean showGrid = true;
+	private boolean showBounds = false;
+	
+	private int gridSize = 30;
+	
+	private boolean tiled = false;
+	
+	/*What the last render drew and what it left out, for profiling.*/
+	private int modelsDrawn;
+	private int modelsCulled;
+	private int edgesDrawn;
+	private int edgesCulled;
+	private int verticesDrawn;
+	
+	public SceneRenderer()
+	{
+		gridLayer = new GridLayer();
+		
+		modelRenderers = new ArrayList<ModelRenderer>();
+		
+		visible = new ArrayList<Model>();
+	}
+	
+	/*
+	 Renders a single model into a new image, seen through viewSpace.
+	 */
+	public BufferedImage render(Model model, AffineTransform viewSpace, int width, int height)
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		
+		render(image, model, viewSpace);
+		
+		return image;
+	}
+	
+	public BufferedImage render(Scene scene, AffineTransform viewSpace, int width, int height)
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		
+		render(image, scene, viewSpace);
+		
+		return image;
+	}
+	
+	public void render(BufferedImage image, Model model, AffineTransform viewSpace)
+	{
+		setVisible(model);
+		
+		render(image, viewSpace);
+	}
+	
+	/*
+	 Renders the scene over the whole of image, in tiles if tiling is on.
+	 */
+	public void render(BufferedImage image, Scene scene, AffineTransform viewSpace)
+	{
+		findVisible(scene, viewSpace, image.getWidth(), image.getHeight());
+		
+		render(image, viewSpace);
+	}
+	
+	private void render(BufferedImage image, AffineTransform viewSpace)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		
+		if(tiled && (width > TILE_SIZE || height > TILE_SIZE) && canTile(viewSpace, visible))
+		{
+			renderTiled(image, viewSpace);
+			return;
+		}
+		
+		Graphics2D g2d = image.createGraphics();
+		
+		try
+		{
+			render(g2d, viewSpace, width, height);
+		} finally
+		{
+			g2d.dispose();
+		}
+	}
+	
+	/*
+	 Renders the scene into the width by height area at the origin of g2d's current transform.
+	 g2d's transform is left as it was.
+	 */
+	public void render(Graphics2D g2d, Scene scene, AffineTransform viewSpace, int width, int height)
+	{
+		findVisible(scene, viewSpace, width, height);
+		
+		render(g2d, viewSpace, width, height);
+	}
+	
+	public void render(Graphics2D g2d, Model model, AffineTransform viewSpace, int width, int height)
+	{
+		setVisible(model);
+		
+		render(g2d, viewSpace, width, height);
+	}
+	
+	private void render(Graphics2D g2d, AffineTransform viewSpace, int width, int height)
+	{
+		g2d.setPaint(background);
+		
+		g2d.fillRect(0, 0, width, height);
+		
+		if(showGrid)
+			gridLayer.paint(g2d, viewSpace, gridSize, width, height);
+		
+		AffineTransform saved = g2d.getTransform();
+		
+		ModelRenderer modelRenderer = getModelRenderer(0);
+		
+		for(Model model : visible)
+		{
+			/*Draw each model relative to the current view*/
+			g2d.setTransform(saved);
+			g2d.transform(viewSpace);
+			g2d.transform(model.getTransform());
+			
+			modelRenderer.paint(g2d, model);
+			
+			count(modelRenderer);
+			
+			if(showBounds)
+				drawBounds(g2d, model.getBounds());
+		}
+		
+		g2d.setTransform(saved);
+	}
+	
+	/*
+	 Collects the models whose boxes overlap the width by height device area, and resets the counts.
+	 */
+	private void findVisible(Scene scene, AffineTransform viewSpace, int width, int height)
+	{
+		visible.clear();
+		
+		modelsDrawn = modelsCulled = edgesDrawn = edgesCulled = verticesDrawn = 0;
+		
+		try
+		{
+			Rectangle2D device = new Rectangle2D.Double(-VIEW_MARGIN, -VIEW_MARGIN, width+2*VIEW_MARGIN, height+2*VIEW_MARGIN);
+			
+			scene.query(viewSpace.createInverse().createTransformedShape(device).getBounds2D(), visible);
+		} catch (NoninvertibleTransformException e)
+		{
+			/*A collapsed view shows none of the models.*/
+		}
+		
+		modelsDrawn = visible.size();
+		
+		/*Both lists are in drawing order, so the culled models are the gaps between visible ones.*/
+		int next = 0;
+		
+		for(Model model : scene.getModels())
+		{
+			if(next < visible.size() && visible.get(next) == model)
+			{
+				next++;
+			}
+			else
+			{
+				modelsCulled++;
+				edgesCulled += Math.max(model.size()-1, 0);
+			}
+		}
+	}
+	
+	/*
+	 Makes a lone model the only one drawn. It is clipped by its renderer like any other.
+	 */
+	private void setVisible(Model model)
+	{
+		visible.clear();
+		visible.add(model);
+		
+		modelsCulled = edgesCulled = edgesDrawn = verticesDrawn = 0;
+		modelsDrawn = 1;
+	}
+	
+	private void count(ModelRenderer modelRenderer)
+	{
+		edgesDrawn += modelRenderer.getEdgesDrawn();
+		edgesCulled += modelRenderer.getEdgesCulled();
+		verticesDrawn += modelRenderer.getVerticesDrawn();
+	}
+	
+	private ModelRenderer getModelRenderer(int index)
+	{
+		while(modelRenderers.size() <= index)
+			modelRenderers.add(new ModelRenderer());
+		
+		return modelRenderers.get(index);
+	}
+	
+	/*
+	 Whether the models can be drawn in tiles with the same result as in one piece. Java2D
+	 rasterizes slanted edges, and strokes thinner than a pixel, near a clip boundary slightly
+	 differently from the same strokes without one. So rotated or sheared scenes, and scenes
+	 zoomed out until edges or bounds boxes thin out to hairlines, are rendered in one piece.
+	 */
+	private boolean canTile(AffineTransform viewSpace, List<Model> models)
+	{
+		if(!isAxisAligned(viewSpace))
+			return false;
+		
+		for(Model model : models)
+		{
+			if(!isAxisAligned(model.getTransform()))
+				return false;
+			
+			AffineTransform modelSpace = new AffineTransform(viewSpace);
+			modelSpace.concatenate(model.getTransform());
+			
+			if(!ModelRenderer.canTile(modelSpace))
+				return false;
+			
+			/*Bounds boxes are drawn with the default stroke, one unit wide.*/
+			if(showBounds && ModelRenderer.getMinimumScale(modelSpace) < ModelRenderer.MIN_TILED_PIXELS)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private static boolean isAxisAligned(AffineTransform transform)
+	{
+		int slanted = AffineTransform.TYPE_GENERAL_ROTATION | AffineTransform.TYPE_QUADRANT_ROTATION | AffineTransform.TYPE_GENERAL_TRANSFORM;
+		
+		return (transform.getType() & slanted) == 0;
+	}
+	
+	/*
+	 Each tile is drawn through its own Graphics2D, clipped to the tile, straight into the image.
+	 Drawing into separate tile images and copying them over would shift every coordinate by
+	 the tile's origin, which changes rounding and so the odd pixel along edges.
+	 */
+	private void renderTiled(BufferedImage image, AffineTransform viewSpace)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		
+		if(showGrid)
+			gridLayer.prepare(viewSpace, gridSize, width, height);
+		
+		int count = visible.size();
+		
+		AffineTransform[] modelSpaces = new AffineTransform[count];
+		ModelRenderer.TileRoutes[] routes = new ModelRenderer.TileRoutes[count];
+		
+		/*Read once here: models compute their bounds lazily and must not do so from the tile threads.*/
+		Rectangle[] bounds = new Rectangle[count];
+		
+		for(int i = 0; i < count; i++)
+		{
+			Model model = visible.get(i);
+			
+			ModelRenderer modelRenderer = getModelRenderer(i);
+			
+			modelSpaces[i] = new AffineTransform(viewSpace);
+			modelSpaces[i].concatenate(model.getTransform());
+			
+			Graphics2D g2d = image.createGraphics();
+			
+			try
+			{
+				g2d.transform(modelSpaces[i]);
+				
+				modelRenderer.prepare(g2d, model);
+			} finally
+			{
+				g2d.dispose();
+			}
+			
+			count(modelRenderer);
+			
+			routes[i] = modelRenderer.route(modelSpaces[i], width, height, TILE_SIZE);
+			
+			if(showBounds)
+				bounds[i] = model.getBounds();
+		}
+		
+		int columns = (width+TILE_SIZE-1)/TILE_SIZE;
+		int rows = (height+TILE_SIZE-1)/TILE_SIZE;
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		
+		for(int tile = 0; tile < columns*rows; tile++)
+		{
+			int index = tile;
+			
+			int x = (tile % columns)*TILE_SIZE;
+			int y = (tile / columns)*TILE_SIZE;
+			
+			Rectangle area = new Rectangle(x, y, Math.min(TILE_SIZE, width-x), Math.min(TILE_SIZE, height-y));
+			
+			tasks.add(() -> renderTile(image, area, viewSpace, modelSpaces, routes, index, bounds));
+		}
+		
+		for(Future<Void> result : ForkJoinPool.commonPool().invokeAll(tasks))
+		{
+			try
+			{
+				result.get();
+			} catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e)
+			{
+				throw new IllegalStateException("Rendering a tile failed", e.getCause());
+			}
+		}
+	}
+	
+	private Void renderTile(BufferedImage image, Rectangle area, AffineTransform viewSpace, AffineTransform[] modelSpaces,
+			ModelRenderer.TileRoutes[] routes, int tile, Rectangle[] bounds)
+	{
+		Graphics2D g2d = image.createGraphics();
+		
+		try
+		{
+			g2d.clip(area);
+			
+			g2d.setPaint(background);
+			
+			g2d.fill(area);
+			
+			if(showGrid)
+				gridLayer.paint(g2d, viewSpace, gridSize, image.getWidth(), image.getHeight());
+			
+			AffineTransform deviceSpace = g2d.getTransform();
+			
+			for(int i = 0; i < modelSpaces.length; i++)
+			{
+				g2d.setTransform(deviceSpace);
+				g2d.transform(modelSpaces[i]);
+				
+				modelRenderers.get(i).drawTile(g2d, routes[i], tile);
+				
+				if(bounds[i] != null)
+					drawBounds(g2d, bounds[i]);
+			}
+		} finally
+		{
+			g2d.dispose();
+		}
+		
+		return null;
+	}
+	
+	private void drawBounds(Graphics2D g2d, Rectangle bounds)
+	{
+		g2d.setColor(boundsColor);
+		g2d.draw(bounds);
+	}
+	
+	/*
+	 The view the modeler opens with: model space origin at the centre, one unit per pixel.
+	 */
+	public static AffineTransform centerView(int width, int height)
+	{
+		return AffineTransform.getTranslateInstance(width/2, height/2);
+	}
+	
+	/*
+	 A view that fits the model's bounds into the width by height area, leaving margin pixels
+	 on every side. Models with no extent are centred at their normal scale.
+	 */
+	public static AffineTransform fitView(Model model, int width, int height, int margin)
+	{
+		if(model.size() == 0)
+			return centerView(width, height);
+		
+		return fitView(model.getTransform().createTransformedShape(model.getBounds()).getBounds2D(), width, height, margin);
+	}
+	
+	/*
+	 The same for the bounds of every model in a scene.
+	 */
+	public static AffineTransform fitView(Scene scene, int width, int height, int margin)
+	{
+		Rectangle2D bounds = scene.getBounds();
+		
+		if(bounds == null)
+			return centerView(width, height);
+		
+		return fitView(bounds, width, height, margin);
+	}
+	
+	private static AffineTransform fitView(Rectangle2D bounds, int width, int height, int margin)
+	{
+		double availableWidth = Math.max(width-2*margin, 1);
+		double availableHeight = Math.max(height-2*margin, 1);
+		
+		double scale;
+		
+		if(bounds.getWidth() == 0 && bounds.getHeight() == 0)
+			scale = 1;
+		else if(bounds.getWidth() == 0)
+			scale = availableHeight/bounds.getHeight();
+		else if(bounds.getHeight() == 0)
+			scale = availableWidth/bounds.getWidth();
+		else
+			scale = Math.min(availableWidth/bounds.getWidth(), availableHeight/bounds.getHeight());
+		
+		AffineTransform view = AffineTransform.getTranslateInstance(width/2.0, height/2.0);
+		
+		view.scale(scale, scale);
+		view.translate(-bounds.getCenterX(), -bounds.getCenterY());
+		
+		return view;
+	}
+	
+	public boolean isShowGrid()
+	{
+		return showGrid;
+	}
+	
+	public void setShowGrid(boolean showGrid)
+	{
+		this.showGrid = showGrid;
+	}
+	
+	public boolean isShowBounds()
+	{
+		return showBounds;
+	}
+	
+	public void setShowBounds(boolean showBounds)
+	{
+		this.showBounds = showBounds;
+	}
+	
+	public boolean isTiled()
+	{
+		return tiled;
+	}
+	
+	/*
+	 Tiling only changes how the work is spread over threads, never what is drawn.
+	 */
+	public void setTiled(boolean tiled)
+	{
+		this.tiled = tiled;
+	}
+	
+	/*
+	 How many models, edges and vertex markers the last render drew and left out, for profiling.
+	 Edges of culled models count as culled.
+	 */
+	public int getModelsDrawn()
+	{
+		return modelsDrawn;
+	}
+	
+	public int getModelsCulled()
+	{
+		return modelsCulled;
+	}
+	
+	public int getEdgesDrawn()
+	{
+		return edgesDrawn;
+	}
+	
+	public int getEdgesCulled()
+	{
+		return edgesCulled;
+	}
+	
+	public int getVerticesDrawn()
+	{
+		return verticesDrawn;
+	}
+	
+	public int getGridSize()
+	{
+		return gridSize;
+	}
+	
+	public void setGridSize(int gridSize)
+	{
+		this.gridSize = gridSize;
+	}
+}
@@ -0,0 +1,273 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ A copy of everything in a scene that has to survive a restart: each model's vertices with their
+ IDs and selection, the next ID it would give out and its transform, and which model is active.
+
+ capture() copies the columns out of the live models, which is quick, so it can be done on the
+ event thread and the copy written out on another while editing goes on. The file is written
+ big-endian with a DataOutputStream, the same as the command journal, and is tagged with the
+ generation of the journal that continues from it.
+ */
+public class SceneSnapshot
+{
+	public static final int MAGIC = 0x53535331; // "SSS1"
+	public static final int VERSION = 1;
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private long generation;
+	
+	private int active;
+	
+	private double[][] transforms;
+	
+	private int[] sizes;
+	private int[] nextIds;
+	
+	private int[][] ids;
+	private double[][] xs;
+	private double[][] ys;
+	private long[][] selections;
+	
+	private SceneSnapshot(int models)
+	{
+		transforms = new double[models][6];
+		
+		sizes = new int[models];
+		nextIds = new int[models];
+		
+		ids = new int[models][];
+		xs = new double[models][];
+		ys = new double[models][];
+		selections = new long[models][];
+	}
+	
+	public static SceneSnapshot capture(Scene scene, long generation)
+	{
+		List<Model> models = scene.getModels();
+		
+		SceneSnapshot snapshot = new SceneSnapshot(models.size());
+		
+		snapshot.generation = generation;
+		snapshot.active = scene.indexOf(scene.getActive());
+		
+		for(int m = 0; m < models.size(); m++)
+		{
+			Model model = models.get(m);
+			
+			int size = model.size();
+			
+			model.getTransform().getMatrix(snapshot.transforms[m]);
+			
+			snapshot.sizes[m] = size;
+			snapshot.nextIds[m] = model.getNextId();
+			
+			int[] ids = new int[size];
+			double[] xs = new double[size];
+			double[] ys = new double[size];
+			
+			BitSet selected = new BitSet(size);
+			
+			for(int i = 0; i < size; i++)
+			{
+				ids[i] = model.getId(i);
+				xs[i] = model.getX(i);
+				ys[i] = model.getY(i);
+			}
+			
+			for(int i = model.nextSelected(0); i >= 0; i = model.nextSelected(i+1))
+				selected.set(i);
+			
+			snapshot.ids[m] = ids;
+			snapshot.xs[m] = xs;
+			snapshot.ys[m] = ys;
+			snapshot.selections[m] = selected.toLongArray();
+		}
+		
+		return snapshot;
+	}
+	
+	public long getGeneration()
+	{
+		return generation;
+	}
+	
+	public int getVertexCount()
+	{
+		int count = 0;
+		
+		for(int size : sizes)
+			count += size;
+		
+		return count;
+	}
+	
+	/*
+	 Roughly how many bytes write() will take.
+	 */
+	public long getEstimatedSize()
+	{
+		long size = 24;
+		
+		for(int m = 0; m < sizes.length; m++)
+			size += 64 + 20L*sizes[m] + 8L*selections[m].length;
+		
+		return size;
+	}
+	
+	/*
+	 Builds a new scene holding the models as they were captured, IDs and all.
+	 */
+	public Scene toScene()
+	{
+		Scene scene = null;
+		
+		for(int m = 0; m < sizes.length; m++)
+		{
+			Model model = new Model();
+			
+			model.addVertices(ids[m], xs[m], ys[m], sizes[m], BitSet.valueOf(selections[m]));
+			model.reserveIds(nextIds[m]);
+			
+			model.getTransform().setTransform(new AffineTransform(transforms[m]));
+			
+			if(scene == null)
+				scene = new Scene(model);
+			else
+				scene.add(model);
+		}
+		
+		if(scene == null)
+			return new Scene();
+		
+		if(active >= 0 && active < scene.size())
+			scene.setActive(scene.getModels().get(active));
+		
+		return scene;
+	}
+	
+	/*
+	 Writes the snapshot and forces it to the device before returning.
+	 */
+	public void write(File file) throws IOException
+	{
+		try(FileOutputStream stream = new FileOutputStream(file);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(generation);
+			out.writeInt(sizes.length);
+			out.writeInt(active);
+			
+			for(int m = 0; m < sizes.length; m++)
+			{
+				for(double value : transforms[m])
+					out.writeDouble(value);
+				
+				out.writeInt(sizes[m]);
+				out.writeInt(nextIds[m]);
+				
+				for(int i = 0; i < sizes[m]; i++)
+					out.writeInt(ids[m][i]);
+				
+				for(int i = 0; i < sizes[m]; i++)
+					out.writeDouble(xs[m][i]);
+				
+				for(int i = 0; i < sizes[m]; i++)
+					out.writeDouble(ys[m][i]);
+				
+				out.writeInt(selections[m].length);
+				
+				for(long word : selections[m])
+					out.writeLong(word);
+			}
+			
+			out.flush();
+			stream.getFD().sync();
+		}
+	}
+	
+	public static SceneSnapshot read(File file) throws IOException
+	{
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+		{
+			if(in.readInt() != MAGIC)
+				throw new IOException(file.getName() + " is not a scene snapshot");
+			
+			int version = in.readInt();
+			
+			if(version != VERSION)
+				throw new IOException("Unsupported snapshot version " + version);
+			
+			long generation = in.readLong();
+			
+			int models = in.readInt();
+			
+			if(models < 0)
+				throw new IOException("Corrupt snapshot");
+			
+			SceneSnapshot snapshot = new SceneSnapshot(models);
+			
+			snapshot.generation = generation;
+			snapshot.active = in.readInt();
+			
+			for(int m = 0; m < models; m++)
+			{
+				for(int i = 0; i < 6; i++)
+					snapshot.transforms[m][i] = in.readDouble();
+				
+				int size = in.readInt();
+				
+				if(size < 0)
+					throw new IOException("Corrupt snapshot");
+				
+				snapshot.sizes[m] = size;
+				snapshot.nextIds[m] = in.readInt();
+				
+				snapshot.ids[m] = new int[size];
+				snapshot.xs[m] = new double[size];
+				snapshot.ys[m] = new double[size];
+				
+				for(int i = 0; i < size; i++)
+					snapshot.ids[m][i] = in.readInt();
+				
+				for(int i = 0; i < size; i++)
+					snapshot.xs[m][i] = in.readDouble();
+				
+				for(int i = 0; i < size; i++)
+					snapshot.ys[m][i] = in.readDouble();
+				
+				int words = in.readInt();
+				
+				if(words < 0 || words > size/64+1)
+					throw new IOException("Corrupt snapshot");
+				
+				snapshot.selections[m] = new long[words];
+				
+				for(int i = 0; i < words; i++)
+					snapshot.selections[m][i] = in.readLong();
+			}
+			
+			return snapshot;
+		}
+		catch(EOFException e)
+		{
+			throw new IOException(file.getName() + " is cut short", e);
+		}
+	}
+}
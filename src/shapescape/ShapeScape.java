@@ -1,15 +1,13 @@
 package shapescape;
 
-import java.awt.BasicStroke;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.GradientPaint;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Point;
 import java.awt.Rectangle;
-import java.awt.Stroke;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
@@ -18,7 +16,10 @@ import java.awt.event.MouseWheelListener;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,33 +27,46 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.UIManager;
 
+import shapescape.command.CommandJournal;
 import shapescape.command.CommandQueue;
 import shapescape.command.CreateVertexCommand;
 import shapescape.command.DragCommand;
+import shapescape.command.SimplifyCommand;
 import shapescape.listener.KeyboardListener;
+import shapescape.profiling.HitTestEvent;
+import shapescape.profiling.PaintEvent;
 
 public class ShapeScape extends JPanel implements MouseListener, MouseMotionListener, MouseWheelListener
 {
 	private static final long serialVersionUID = 8252030148986275166L;
 	
+	/*How close, in pixels, the cursor has to come to a vertex or edge to be pulled onto it.*/
+	private static final double SNAP_RADIUS = 8;
+	
 	private AffineTransform worldSpace;
 	private AffineTransform viewSpace;
 	
+	/*Mappings from model and view space into world space, recomposed only when one of their parts changes.*/
+	private ComposedTransform pointSpace = new ComposedTransform();
+	private ComposedTransform viewPointSpace = new ComposedTransform();
+	
+	private Point2D.Double worldCursor = new Point2D.Double();
+	
 	private File saveFile;
 
-	private Model model;
+	private Scene scene;
 	
 	private Rectangle selectionArea;
 	
-	private int gridSize = 30;
-	
 	private Point cursor;
 	
 	private Point dragAnchor;
 	
-	//User View Options
-	private boolean showGrid = true;
-	private boolean showBounds = false;
+	private boolean snapToVertices = false;
+	private boolean snapToEdges = false;
+	
+	/*Whether the cursor sits on a vertex or edge it was snapped to.*/
+	private boolean cursorSnapped = false;
 	
 	private boolean viewDragging = false;
 	
@@ -60,18 +74,30 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 	
 	private boolean selecting = false;
 	
+	private volatile boolean busy = false;
+	
 	private Color selectionColor = new Color(20,200,100,128);
 	
 	private Color cursorColor = Color.ORANGE;
 	
-	private Color edgeColor = Color.WHITE;
-	private Color selectedEdgeColor = Color.ORANGE;
+	private SceneRenderer sceneRenderer;
 	
-	private Color vertexColor = Color.RED;
-	private Color selectedVertexColor = Color.BLUE;
+	private BufferedImage staticLayer;
 	
-	private Stroke normalStroke;
-	private Stroke edgeStroke;
+	/*State the static layer was last drawn with.*/
+	private Scene layerScene;
+	private long layerModCount;
+	private AffineTransform layerViewSpace = new AffineTransform();
+	private boolean layerShowGrid;
+	private boolean layerShowBounds;
+	private boolean layerTiled;
+	private int layerGridSize;
+	
+	private StatsOverlay statsOverlay;
+	
+	private LevelOfDetailBuilder levelOfDetail;
+	
+	private boolean showStats = false;
 	
 	private int lastWidth;
 	private int lastHeight;
@@ -80,6 +106,8 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 	
 	private DragCommand dragCmd;
 	
+	private Point vertexDragStart;
+	
 	public static void main(String[] args)
 	{
 		try {
@@ -93,6 +121,23 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		ShapeScape modeler = new ShapeScape();
 		ModelerToolBar toolbar = new ModelerToolBar(modeler);
 		
+		/*Picks up where the last session left off, crashed or not. An empty path turns this off.*/
+		String journalPath = System.getProperty("shapescape.journal", new File(System.getProperty("user.home"), ".shapescape").getPath());
+		
+		if(!journalPath.isEmpty())
+		{
+			try
+			{
+				CommandJournal journal = CommandJournal.open(new File(journalPath), modeler);
+				
+				if(journal != null)
+					Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		
 		frame.setLayout(new BorderLayout());
 		
 		frame.add(toolbar, BorderLayout.NORTH);
@@ -107,11 +152,15 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 	{
 		this.viewSpace = new AffineTransform();
 		
-		this.model = new Model();
+		this.scene = new Scene();
 		
 		this.selectionArea = new Rectangle();
 		
-		this.edgeStroke = new BasicStroke(2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+		this.sceneRenderer = new SceneRenderer();
+		
+		this.statsOverlay = new StatsOverlay();
+		
+		this.levelOfDetail = new LevelOfDetailBuilder(this);
 		
 		this.cursor = new Point();
 		
@@ -131,6 +180,11 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 	
 	public void paint(Graphics g)
 	{	
+		long start = System.nanoTime();
+		
+		PaintEvent event = new PaintEvent();
+		event.begin();
+		
 		super.paint(g);
 		
 		int deltaWidth = (getWidth()-lastWidth)/2;
@@ -145,62 +199,18 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		
 		worldSpace = g2d.getTransform();
 		
-		normalStroke = g2d.getStroke();
+		/*Drag events only record an offset; the selection is moved once per frame here.*/
+		if(vertexDragging)
+			dragCmd.apply();
 		
-		g2d.setPaint(Color.BLACK);
+		boolean layerRedrawn = staticLayerStale();
 		
-		g2d.fillRect(0, 0, getWidth(), getHeight());
+		if(layerRedrawn)
+			renderStaticLayer();
 		
-		if(showGrid)
-			drawGrid(g2d);
-		
-		/*Draw the model relative to the user's current view*/
-		g2d.setTransform(viewSpace);
-		
-		if(model.getVertices().size() > 0)
-		{
-			Vertex lastV = model.getVertices().get(0);
-
-			g2d.setStroke(edgeStroke);
-			
-			for(Vertex v : model.getVertices())
-			{
-				if(!lastV.isSelected() && v.isSelected())
-					g2d.setPaint(new GradientPaint(lastV, edgeColor, v, selectedEdgeColor));
-				else if(lastV.isSelected() && !v.isSelected())
-					g2d.setPaint(new GradientPaint(lastV, selectedEdgeColor, v, edgeColor));
-				else if(v.isSelected())
-					g2d.setPaint(selectedEdgeColor);
-				else
-					g2d.setPaint(edgeColor);
-				
-				g2d.drawLine((int)lastV.getX(), (int)lastV.getY(), (int)v.getX(), (int)v.getY());
-			
-				lastV = v;
-			}
-			
-			g2d.setStroke(normalStroke);
-			
-			for(Vertex v : model.getVertices())
-			{
-				if(v.isSelected())
-					g2d.setPaint(selectedVertexColor);
-				else
-					g2d.setPaint(vertexColor);
-				
-				g2d.fill(v.getGrabBox());
-			}
-		}
-		
-		if(showBounds)
-		{
-			g2d.setColor(Color.GREEN);
-			g2d.draw(model.generateBounds());
-		}
-		
-		/*Revert to world space for overlays.*/
-		g2d.setTransform(worldSpace);
+		g2d.drawImage(staticLayer, 0, 0, null);
 		
+		/*Overlays are drawn straight into world space on every repaint.*/
 		if(selecting)
 		{
 			g2d.setPaint(selectionColor);
@@ -213,54 +223,218 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		g2d.setPaint(cursorColor);
 		g2d.fillOval(cursor.x-2, cursor.y-2, 4, 4);
 		
-		Point2D worldCursor = viewToWorld(cursor);
+		if(cursorSnapped)
+			g2d.drawOval(cursor.x-5, cursor.y-5, 10, 10);
+		
+		viewToWorld(cursor, worldCursor);
 		
 		g2d.setPaint(Color.WHITE);
 		g2d.drawString(String.format("%s, %s" , worldCursor.getX(), worldCursor.getY()), 3, getHeight()-3);
+		
+		if(event.shouldCommit())
+		{
+			event.width = getWidth();
+			event.height = getHeight();
+			event.models = scene.size();
+			event.modelsCulled = sceneRenderer.getModelsCulled();
+			event.vertices = scene.getVertexCount();
+			event.edgesDrawn = sceneRenderer.getEdgesDrawn();
+			event.edgesCulled = sceneRenderer.getEdgesCulled();
+			event.verticesDrawn = sceneRenderer.getVerticesDrawn();
+			event.verticesCulled = event.vertices-sceneRenderer.getVerticesDrawn();
+			event.layerRedrawn = layerRedrawn;
+			event.tiled = sceneRenderer.isTiled();
+			
+			event.commit();
+		}
+		
+		/*The display's own drawing is left out of the frame time it shows.*/
+		statsOverlay.addFrame(start, System.nanoTime());
+		
+		if(showStats)
+			statsOverlay.paint(g2d, scene, commandQueue);
+		
+		levelOfDetail.update(scene);
 	}
 	
-	private void drawGrid(Graphics2D g2d)
+	/*
+	 The grid and model are drawn into an offscreen image that is only redrawn when the model,
+	 its selection, the view or the view options change. Cursor moves only touch the overlays.
+	 */
+	private boolean staticLayerStale()
 	{
-		g2d.setPaint(Color.GRAY);
-		
-		int xCopyNum = 100/gridSize;
-		int yCopyNum = 100/gridSize;
+		return staticLayer == null
+				|| staticLayer.getWidth() != Math.max(getWidth(), 1)
+				|| staticLayer.getHeight() != Math.max(getHeight(), 1)
+				|| layerScene != scene
+				|| layerModCount != scene.getModificationCount()
+				|| !layerViewSpace.equals(viewSpace)
+				|| layerShowGrid != sceneRenderer.isShowGrid()
+				|| layerShowBounds != sceneRenderer.isShowBounds()
+				|| layerTiled != sceneRenderer.isTiled()
+				|| layerGridSize != sceneRenderer.getGridSize();
+	}
+	
+	private void renderStaticLayer()
+	{
+		int width = Math.max(getWidth(), 1);
+		int height = Math.max(getHeight(), 1);
 		
-		int gridWindowX = xCopyNum*gridSize;
-		int gridWindowY = yCopyNum*gridSize;
+		if(staticLayer == null || staticLayer.getWidth() != width || staticLayer.getHeight() != height)
+		{
+			GraphicsConfiguration config = getGraphicsConfiguration();
+			
+			if(config != null)
+				staticLayer = config.createCompatibleImage(width, height);
+			else
+				staticLayer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
 		
-		int gridXOffset = -(int)(viewSpace.getTranslateX()%gridSize);
-		int gridYOffset = -(int)(viewSpace.getTranslateY()%gridSize);
+		sceneRenderer.render(staticLayer, scene, viewSpace);
 		
-		/*
-		 Create a small subsection of grid, then copy it to the rest of the panel.
-		 */
-		for(int gridX = 0; gridX < gridWindowX; gridX++)
+		layerScene = scene;
+		layerModCount = scene.getModificationCount();
+		layerViewSpace.setTransform(viewSpace);
+		layerShowGrid = sceneRenderer.isShowGrid();
+		layerShowBounds = sceneRenderer.isShowBounds();
+		layerTiled = sceneRenderer.isTiled();
+		layerGridSize = sceneRenderer.getGridSize();
+	}
+	
+	/*
+	 Repaints just the changed overlay region and the coordinate readout, unless something
+	 underneath has changed since the last frame and the whole panel needs redrawing anyway.
+	 */
+	private void repaintOverlay(Rectangle dirty)
+	{
+		if(staticLayerStale())
 		{
-			for(int gridY = 0; gridY < gridWindowY; gridY++)
-			{
-				if(((gridX+gridXOffset) % gridSize == 0) || ((gridY+gridYOffset) % gridSize == 0))
-				{
-					g2d.drawLine(gridX, gridY, gridX, gridY);
-				}
-			}
+			repaint();
 		}
-
-		for(int copyX = 0; copyX < getWidth(); copyX += gridWindowX)
+		else
 		{
-			g2d.copyArea(0, 0, gridWindowX, gridWindowY, copyX, 0);
+			repaint(dirty);
+			repaint(getReadoutRegion());
+			
+			if(showStats)
+				repaint(statsOverlay.getBounds());
 		}
+	}
+	
+	private Rectangle getCursorRegion(Point point)
+	{
+		return new Rectangle(point.x-6, point.y-6, 13, 13);
+	}
+	
+	private Rectangle getSelectionRegion()
+	{
+		int x = Math.min(selectionArea.x, selectionArea.x+selectionArea.width);
+		int y = Math.min(selectionArea.y, selectionArea.y+selectionArea.height);
 		
-		for(int copyY = 0; copyY < getHeight(); copyY += gridWindowY)
-		{
-			g2d.copyArea(0, 0, getWidth(), gridWindowY, 0, copyY);
-		}
+		return new Rectangle(x-1, y-1, Math.abs(selectionArea.width)+3, Math.abs(selectionArea.height)+3);
+	}
+	
+	private Rectangle getReadoutRegion()
+	{
+		int height = getFontMetrics(getFont()).getHeight()+3;
+		
+		return new Rectangle(0, getHeight()-height, getWidth(), height);
 	}
 	
 	public void resetScene()
 	{
-		model = new Model();
+		scene = new Scene();
 		resetViewspace();
+		
+		sceneReplaced();
+	}
+	
+	/*
+	 Replaces the scene with a model that was built elsewhere, such as by a load operation.
+	 */
+	public void loadScene(Model model)
+	{
+		scene = new Scene(model);
+		resetViewspace();
+		
+		sceneReplaced();
+		
+		repaint();
+	}
+	
+	/*
+	 Shows a scene that was shown before, such as when a load that replaced it is abandoned.
+	 The view is left where it is.
+	 */
+	public void setScene(Scene scene)
+	{
+		this.scene = scene;
+		
+		sceneReplaced();
+		
+		repaint();
+	}
+	
+	/*
+	 The history refers to models of the scene that was replaced, so it is dropped, and the journal
+	 starts over from a snapshot of the new scene.
+	 */
+	private void sceneReplaced()
+	{
+		commandQueue.clearHistory();
+		
+		checkpoint();
+	}
+	
+	/*
+	 Adds a model to the scene, on top of the others, and makes it the one being edited.
+	 */
+	public void addModel(Model model)
+	{
+		scene.add(model);
+		
+		CommandJournal journal = commandQueue.getJournal();
+		
+		if(journal != null && model.size() == 0)
+			journal.modelAdded();
+		else
+			checkpoint();
+		
+		repaint();
+	}
+	
+	/*
+	 Records every edit made through the command queue in journal from now on, so the scene can
+	 be restored after a crash.
+	 */
+	public void setJournal(CommandJournal journal)
+	{
+		commandQueue.setJournal(journal);
+	}
+	
+	/*
+	 Tells the journal, if there is one, that the scene changed in a way no command records, so
+	 it snapshots the whole scene.
+	 */
+	public void checkpoint()
+	{
+		CommandJournal journal = commandQueue.getJournal();
+		
+		if(journal != null)
+			journal.snapshot();
+	}
+	
+	/*
+	 While busy, a background operation owns the model and edits from the user are ignored.
+	 */
+	public boolean isBusy()
+	{
+		return busy;
+	}
+	
+	public void setBusy(boolean busy)
+	{
+		this.busy = busy;
 	}
 	
 	protected void resetViewspace()
@@ -274,7 +448,19 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 	
 	public void undoLastCommand()
 	{
-		commandQueue.undoLastCommand();
+		if(!busy)
+			commandQueue.undoLastCommand();
+	}
+	
+	public void redoLastCommand()
+	{
+		if(!busy)
+			commandQueue.redoLastCommand();
+	}
+	
+	public CommandQueue getCommandQueue()
+	{
+		return commandQueue;
 	}
 	
 	public void createVertexAt(Point2D point)
@@ -290,103 +476,254 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		commandQueue.executeNextCommand();
 	}
 
+	/*
+	 Swaps in a simplified version of model, worked out beforehand by SimplifyCommand.simplify(),
+	 as a single undoable step.
+	 */
+	public void simplify(Model model, int method, double tolerance, Model simplified)
+	{
+		SimplifyCommand simplify = new SimplifyCommand(this, model, method, tolerance, simplified);
+		
+		commandQueue.addCommand(simplify);
+		commandQueue.executeNextCommand();
+	}
+	
 	public List<Vertex> getSelectedVertices()
 	{
-		List<Vertex> selected = new ArrayList<Vertex>();
+		List<Vertex> selected = new ArrayList<Vertex>(scene.getSelectedCount());
 		
-		for(Vertex v : model.getVertices())
+		for(Model model : scene.getModels())
 		{
-			if(v.isSelected())
-				selected.add(v);
+			for(int i = model.nextSelected(0); i >= 0; i = model.nextSelected(i+1))
+				selected.add(model.getVertex(i));
 		}
 		
 		return selected;
 	}
 	
+	/*
+	 IDs of the selected vertices of the active model.
+	 */
+	public int[] getSelectedIds()
+	{
+		return getModel().getSelectedIds();
+	}
+	
 	public void clearSelectedVertices()
 	{
-		for(Vertex v : model.getVertices())
-			v.setSelected(false);
+		scene.clearSelection();
 	}
 	
 	public boolean selectionEmpty()
 	{	
-		for(Vertex v : model.getVertices())
-		{
-			if(v.isSelected())
-			{
-				return false;
-			}
-		}
-		
-		return true;
+		return scene.getSelectedCount() == 0;
 	}
 	
 	public Vertex getVertexAt(Point2D point)
 	{
-		Point2D[] localPoints = new Point2D[model.getVertices().size()];
-		Point2D[] worldPoints = new Point2D[model.getVertices().size()];
+		Rectangle2D grabArea = new Rectangle2D.Double(point.getX()-5, point.getY()-5, 10, 10);
+		
+		HitTestEvent event = new HitTestEvent();
+		event.begin();
+		
+		List<Model> models = findModels(grabArea);
+		
+		IntList candidates = new IntList();
 		
-		model.getVertices().toArray(localPoints);
+		int candidateCount = 0;
 		
-		this.toWorldSpace(localPoints, worldPoints, model.getTransform());
+		Model nearestModel = null;
+		int nearest = -1;
+		double nearestDistSq = 25;
 		
-		for(int i = 0; i < worldPoints.length; i++)
+		Point2D worldPoint = new Point2D.Double();
+		
+		for(Model model : models)
 		{
-			if(point.distanceSq(worldPoints[i]) < 25)
-				return model.getVertices().get(i);
+			ComposedTransform pointSpace = getPointSpace(model.getTransform());
+			
+			Rectangle2D localArea = toLocalArea(grabArea, pointSpace);
+			
+			if(localArea == null)
+				continue;
+			
+			candidates.clear();
+			
+			model.getVertexGrid().query(localArea, candidates);
+			
+			candidateCount += candidates.size();
+			
+			for(int i = 0; i < candidates.size(); i++)
+			{
+				int slot = candidates.get(i);
+				
+				worldPoint.setLocation(model.getX(slot), model.getY(slot));
+				pointSpace.transform(worldPoint, worldPoint);
+				
+				double distSq = point.distanceSq(worldPoint);
+				
+				if(distSq < nearestDistSq)
+				{
+					nearestModel = model;
+					nearest = slot;
+					nearestDistSq = distSq;
+				}
+			}
 		}
 		
-		return null;
+		commitHitTest(event, "Vertex", models.size(), candidateCount, nearest < 0 ? 0 : 1);
+		
+		return nearest < 0 ? null : nearestModel.getVertex(nearest);
 	}
 	
 	public List<Vertex> getVerticesIn(Rectangle bounds)
 	{
 		List<Vertex> result = new ArrayList<Vertex>();
 		
-		Point2D localPoints[] = new Point2D[model.getVertices().size()];
-		Point2D worldPoints[] = new Point2D[model.getVertices().size()];
+		if(bounds.isEmpty())
+			return result;
+		
+		HitTestEvent event = new HitTestEvent();
+		event.begin();
 		
-		model.getVertices().toArray(localPoints);
+		List<Model> models = findModels(bounds);
 		
-		this.toWorldSpace(localPoints, worldPoints, model.getTransform());
+		IntList candidates = new IntList();
 		
-		for(int i = 0; i < worldPoints.length; i++)
+		int candidateCount = 0;
+		
+		Point2D worldPoint = new Point2D.Double();
+		
+		for(Model model : models)
 		{
-			if(bounds.contains(worldPoints[i]))
+			ComposedTransform pointSpace = getPointSpace(model.getTransform());
+			
+			Rectangle2D localArea = toLocalArea(bounds, pointSpace);
+			
+			if(localArea == null)
+				continue;
+			
+			candidates.clear();
+			
+			model.getVertexGrid().query(localArea, candidates);
+			
+			candidateCount += candidates.size();
+			
+			for(int i = 0; i < candidates.size(); i++)
 			{
-				result.add(model.getVertices().get(i));
+				int slot = candidates.get(i);
+				
+				worldPoint.setLocation(model.getX(slot), model.getY(slot));
+				pointSpace.transform(worldPoint, worldPoint);
+				
+				if(bounds.contains(worldPoint))
+					result.add(model.getVertex(slot));
 			}
 		}
 		
+		commitHitTest(event, "Area", models.size(), candidateCount, result.size());
+		
 		return result;
 	}
 	
+	/*
+	 Returns the models whose boxes overlap a world space area, so only their grids are searched.
+	 */
+	private List<Model> findModels(Rectangle2D area)
+	{
+		List<Model> models = new ArrayList<Model>();
+		
+		Rectangle2D sceneArea = toLocalArea(area, getViewPointSpace());
+		
+		if(sceneArea != null)
+			scene.query(sceneArea, models);
+		
+		return models;
+	}
+	
+	private void commitHitTest(HitTestEvent event, String query, int models, int candidates, int hits)
+	{
+		if(event.shouldCommit())
+		{
+			event.query = query;
+			event.models = models;
+			event.vertices = scene.getVertexCount();
+			event.candidates = candidates;
+			event.hits = hits;
+			
+			event.commit();
+		}
+	}
+	
+	/*
+	 Maps a world space area back through pointSpace once, so a grid or the scene's hierarchy can be queried directly.
+	 */
+	private Rectangle2D toLocalArea(Rectangle2D area, ComposedTransform pointSpace)
+	{
+		AffineTransform inverse = pointSpace.getInverse();
+		
+		if(inverse == null)
+			return null;
+		
+		return inverse.createTransformedShape(area).getBounds2D();
+	}
+	
 	public List<Vertex> getVertices()
 	{
-		return model.getVertices();
+		return getModel().getVertices();
 	}
 	
+	/*
+	 Returns the active model, which new vertices and whole-model operations go to.
+	 */
 	public Model getModel()
 	{
-		return model;
+		return scene.getActive();
+	}
+	
+	public Scene getScene()
+	{
+		return scene;
 	}
 	
 	public int getGridSize()
 	{
-		return gridSize;
+		return sceneRenderer.getGridSize();
+	}
+	
+	public void setGridSize(int gridSize)
+	{
+		sceneRenderer.setGridSize(gridSize);
 	}
 
 	public void setShowGrid(boolean showGrid) 
 	{
-		this.showGrid = showGrid;
+		sceneRenderer.setShowGrid(showGrid);
 	}
 
 	public void setShowBounds(boolean showBounds) 
 	{
-		this.showBounds = showBounds;
+		sceneRenderer.setShowBounds(showBounds);
 	}
 
+	/*
+	 Renders the grid and model in parallel tiles. The picture is the same either way.
+	 */
+	public void setTiledRendering(boolean tiled)
+	{
+		sceneRenderer.setTiled(tiled);
+		
+		repaint();
+	}
+	
+	/*
+	 Shows frame rate, frame times, model and history size and heap use over the scene.
+	 */
+	public void setShowStats(boolean showStats)
+	{
+		this.showStats = showStats;
+	}
+	
 	public File getSaveFile()
 	{
 		return saveFile;
@@ -397,18 +734,134 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		this.saveFile = saveFile;
 	}
 	
+	/*
+	 Pulls the cursor onto nearby vertices or edges as the mouse moves, when not snapping to the
+	 grid. The search runs on every mouse event, so it goes through the scene's hierarchy and
+	 each model's grids rather than over the vertices.
+	 */
+	public void setSnapToVertices(boolean snapToVertices)
+	{
+		this.snapToVertices = snapToVertices;
+	}
+	
+	public void setSnapToEdges(boolean snapToEdges)
+	{
+		this.snapToEdges = snapToEdges;
+	}
+	
 	public void updateCursor(MouseEvent e)
 	{
 		cursor = e.getPoint();
+		cursorSnapped = false;
 		
 		if(e.isControlDown())
 		{
-			cursor.x = (cursor.x/gridSize)*gridSize + (int)(viewSpace.getTranslateX()%gridSize);
-			cursor.y = (cursor.y/gridSize)*gridSize + (int)(viewSpace.getTranslateY()%gridSize);
+			snapToGrid(cursor);
+			snapToGrid(dragAnchor);
+		}
+		else if((snapToVertices || snapToEdges) && !viewDragging && !busy)
+		{
+			cursorSnapped = snapToModels(cursor);
+		}
+	}
+	
+	/*
+	 Snaps a panel point onto the nearest visible grid intersection.
+	 */
+	private void snapToGrid(Point point)
+	{
+		double scaleX = viewSpace.getScaleX();
+		double scaleY = viewSpace.getScaleY();
+		
+		double stepX = GridLayer.getStep(getGridSize(), Math.abs(scaleX))*scaleX;
+		double stepY = GridLayer.getStep(getGridSize(), Math.abs(scaleY))*scaleY;
+		
+		double tx = viewSpace.getTranslateX();
+		double ty = viewSpace.getTranslateY();
+		
+		/*Without a grid shown there is nothing to snap to.*/
+		if(!Double.isFinite(stepX) || !Double.isFinite(stepY))
+			return;
+		
+		point.x = (int)Math.round(tx + Math.round((point.x-tx)/stepX)*stepX);
+		point.y = (int)Math.round(ty + Math.round((point.y-ty)/stepY)*stepY);
+	}
+	
+	/*
+	 Moves a panel point onto the nearest vertex within SNAP_RADIUS pixels or, failing that, the
+	 nearest point on an edge. Distances are measured on screen, whatever the models' transforms.
+	 While vertices are dragged they and their edges are passed over, so they can be dropped onto
+	 others instead of catching the cursor themselves. Returns whether the point moved.
+	 */
+	private boolean snapToModels(Point point)
+	{
+		Rectangle2D area = new Rectangle2D.Double(point.x-SNAP_RADIUS, point.y-SNAP_RADIUS, 2*SNAP_RADIUS, 2*SNAP_RADIUS);
+		
+		List<Model> models = findModels(area);
+		
+		Point2D localPoint = new Point2D.Double();
+		Point2D worldPoint = new Point2D.Double();
+		
+		double[] edgePoint = new double[2];
+		
+		for(int pass = 0; pass < 2; pass++)
+		{
+			boolean vertices = pass == 0;
 			
-			dragAnchor.x = (dragAnchor.x/gridSize)*gridSize;
-			dragAnchor.y = (dragAnchor.y/gridSize)*gridSize;
+			if(vertices ? !snapToVertices : !snapToEdges)
+				continue;
+			
+			Point2D nearest = null;
+			double nearestDistSq = Double.POSITIVE_INFINITY;
+			
+			for(Model model : models)
+			{
+				ComposedTransform pointSpace = getPointSpace(model.getTransform());
+				
+				if(!pointSpace.inverseTransform(point, localPoint))
+					continue;
+				
+				AffineTransform metric = pointSpace.getForward();
+				
+				if(vertices)
+				{
+					int slot = model.getVertexGrid().nearest(localPoint.getX(), localPoint.getY(), metric, SNAP_RADIUS, vertexDragging);
+					
+					if(slot < 0)
+						continue;
+					
+					worldPoint.setLocation(model.getX(slot), model.getY(slot));
+				}
+				else
+				{
+					int edge = model.getEdgeGrid().nearest(localPoint.getX(), localPoint.getY(), metric, SNAP_RADIUS, vertexDragging, edgePoint);
+					
+					if(edge < 0)
+						continue;
+					
+					worldPoint.setLocation(edgePoint[0], edgePoint[1]);
+				}
+				
+				pointSpace.transform(worldPoint, worldPoint);
+				
+				double distSq = point.distanceSq(worldPoint);
+				
+				if(distSq < nearestDistSq)
+				{
+					nearest = (Point2D)worldPoint.clone();
+					nearestDistSq = distSq;
+				}
+			}
+			
+			if(nearest != null)
+			{
+				point.setLocation((int)Math.round(nearest.getX()), (int)Math.round(nearest.getY()));
+				
+				return true;
+			}
 		}
+		
+		return false;
 	}
 
 	@Override
@@ -416,6 +869,9 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 	{
 		updateCursor(e);
 		
+		if(busy)
+			return;
+		
 		if(e.getButton() == MouseEvent.BUTTON3)
 		{
 			Vertex vert = getVertexAt(cursor);
@@ -424,13 +880,19 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 			{
 				clearSelectedVertices();
 
-				createVertexAt(viewToWorld(cursor));
+				Point2D point = worldToModel(viewToWorld(cursor));
+				
+				/*A collapsed model has nowhere to put the vertex.*/
+				if(point != null)
+					createVertexAt(point);
 				
 				repaint();
 			}
 			else
 			{
 				vert.setSelected(true);
+				
+				scene.setActive(vert.getModel());
 			}
 		}
 	}
@@ -447,6 +909,9 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		dragAnchor = cursor;
 		updateCursor(e);
 		
+		if(busy && e.getButton() != MouseEvent.BUTTON2)
+			return;
+		
 		if(e.getButton() == MouseEvent.BUTTON1)
 		{
 			clearSelectedVertices();
@@ -461,30 +926,28 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		}
 		else if(e.getButton() == MouseEvent.BUTTON3)
 		{
-			int selectCount = getSelectedVertices().size();
+			int selectCount = scene.getSelectedCount();
+			
+			Vertex clicked = (selectCount <= 1) ? getVertexAt(cursor) : null;
 			
-			if(selectCount > 1 || (selectCount == 1 && getVertexAt(cursor) == null))
+			if(selectCount > 1 || (selectCount == 1 && clicked == null))
 			{
-				//dragAnchor = cursor;
-				dragCmd = new DragCommand(this, getSelectedVertices(), dragAnchor, cursor);
-				vertexDragging = true;
+				startVertexDrag();
 			}
 			else
 			{
 				clearSelectedVertices();
 				
-				Vertex clicked = getVertexAt(cursor);
-				
 				if(clicked != null)
 				{
 					clicked.setSelected(true);
+					
+					scene.setActive(clicked.getModel());
 				}
 				
 				if(!selectionEmpty())
 				{
-					//dragAnchor = cursor;
-					dragCmd = new DragCommand(this, getSelectedVertices(), dragAnchor, cursor);
-					vertexDragging = true;
+					startVertexDrag();
 				}
 			}
 		}
@@ -497,17 +960,25 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		
 		if(e.getButton() == MouseEvent.BUTTON1)
 		{
+			/*The press was ignored, since an operation had the model then.*/
+			if(!selecting)
+				return;
+			
+			selecting = false;
+			
 			selectionArea.width = (int)(cursor.getX()-selectionArea.x);
 			selectionArea.height = (int)(cursor.getY()-selectionArea.y);
 			
 			repaint();
 			
+			/*An operation that started during the drag owns the model now, so the area is dropped.*/
+			if(busy)
+				return;
+			
 			for(Vertex v : this.getVerticesIn(selectionArea))
 			{
 				v.setSelected(true);
 			}
-			
-			selecting = false;
 		}
 		else if(e.getButton() == MouseEvent.BUTTON2)
 		{
@@ -517,38 +988,85 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 		{
 			if(vertexDragging)
 			{
-				dragCmd.setStartPoint(dragCmd.getEndPoint());
-				commandQueue.addCommand(dragCmd);
-				commandQueue.executeNextCommand();
+				updateVertexDrag();
+				
+				if(dragCmd.getOffsetX() != 0 || dragCmd.getOffsetY() != 0)
+				{
+					commandQueue.addCommand(dragCmd);
+					commandQueue.executeNextCommand();
+				}
+				else
+					dragCmd.finish();
 				
 				vertexDragging = false;
 			}
 		}
 	}
 
+	private void startVertexDrag()
+	{
+		List<Model> models = new ArrayList<Model>();
+		
+		for(Model model : scene.getModels())
+		{
+			if(!model.selectionEmpty())
+				models.add(model);
+		}
+		
+		int[][] ids = new int[models.size()][];
+		
+		for(int i = 0; i < ids.length; i++)
+			ids[i] = models.get(i).getSelectedIds();
+		
+		dragCmd = new DragCommand(this, models.toArray(new Model[0]), ids);
+		vertexDragStart = new Point(cursor);
+		
+		vertexDragging = true;
+	}
+	
+	/*
+	 Records how far the cursor has moved since the drag began, in scene units.
+	 The vertices themselves are only moved when the next frame is painted.
+	 */
+	private void updateVertexDrag()
+	{
+		Point2D offset = new Point2D.Double(cursor.x-vertexDragStart.x, cursor.y-vertexDragStart.y);
+		
+		AffineTransform inverse = getViewPointSpace().getInverse();
+		
+		if(inverse == null)
+			return;
+		
+		inverse.deltaTransform(offset, offset);
+		
+		dragCmd.setOffset(offset.getX(), offset.getY());
+	}
+	
 	@Override
 	public void mouseDragged(MouseEvent e)
 	{
+		Point oldCursor = cursor;
+		
 		updateCursor(e);
 		
 		if(selecting)
 		{
+			Rectangle dirty = getSelectionRegion();
+			dirty.add(getCursorRegion(oldCursor));
+			
 			selectionArea.width = (int)(cursor.getX()-selectionArea.x);
 			selectionArea.height = (int)(cursor.getY()-selectionArea.y);
 			
-			repaint();
+			dirty.add(getSelectionRegion());
+			dirty.add(getCursorRegion(cursor));
+			
+			repaintOverlay(dirty);
 		}
 		else if(vertexDragging)
 		{
-			Point drag = new Point();
-			
-			drag.x = (int)(cursor.getX() - dragAnchor.getX());
-			drag.y = (int)(cursor.getY() - dragAnchor.getY());
+			updateVertexDrag();
 			
-			dragCmd.setStartPoint(dragCmd.getEndPoint());
-			dragCmd.setEndPoint(cursor);
-			
-			dragCmd.execute();
+			repaint();
 		}
 		else if(viewDragging)
 		{
@@ -563,69 +1081,89 @@ public class ShapeScape extends JPanel implements MouseListener, MouseMotionList
 	@Override
 	public void mouseMoved(MouseEvent e)
 	{
+		Point oldCursor = cursor;
+		
 		updateCursor(e);
 		
-		repaint();
+		Rectangle dirty = getCursorRegion(oldCursor);
+		dirty.add(getCursorRegion(cursor));
+		
+		repaintOverlay(dirty);
+	}
+	
+	private ComposedTransform getPointSpace(AffineTransform transform)
+	{
+		return pointSpace.update(worldSpace, viewSpace, transform);
+	}
+	
+	private ComposedTransform getViewPointSpace()
+	{
+		return viewPointSpace.update(worldSpace, viewSpace, null);
 	}
 	
 	public void toWorldSpace(Point2D[] srcPoints, Point2D[] dstPoints, AffineTransform transform)
 	{
-		AffineTransform pointSpace = new AffineTransform(worldSpace);
-		
-		pointSpace.concatenate(viewSpace);
-		pointSpace.concatenate(transform);
-		
-		pointSpace.transform(srcPoints, 0, dstPoints, 0, dstPoints.length);
+		getPointSpace(transform).getForward().transform(srcPoints, 0, dstPoints, 0, dstPoints.length);
 	}
 	
 	public Point2D toWorldSpace(Point2D point, AffineTransform transform)
 	{
-		Point2D worldPoint = new Point2D.Double();
-		
-		AffineTransform pointSpace = new AffineTransform(worldSpace);
-		
-		pointSpace.concatenate(viewSpace);
-		pointSpace.concatenate(transform);
-		
-		pointSpace.transform(point, worldPoint);
-		
-		return worldPoint;
+		return toWorldSpace(point, new Point2D.Double(), transform);
+	}
+	
+	public Point2D toWorldSpace(Point2D point, Point2D worldPoint, AffineTransform transform)
+	{
+		return getPointSpace(transform).transform(point, worldPoint);
+	}
+	
+	/*
+	 Maps count interleaved x,y pairs from src into dst, which may be the same array.
+	 */
+	public void toWorldSpace(double[] src, double[] dst, int count, AffineTransform transform)
+	{
+		getPointSpace(transform).transform(src, 0, dst, 0, count);
 	}
 	
 	public Point2D toViewSpace(Point2D point, AffineTransform transform)
 	{
-		Point2D viewPoint = new Point2D.Double();
-		
-		AffineTransform pointSpace = new AffineTransform(worldSpace);
-		
-		pointSpace.concatenate(viewSpace);
-		
-		pointSpace.concatenate(transform);
-		
-		try {
-			pointSpace.inverseTransform(point, viewPoint);
-		} catch (NoninvertibleTransformException e)
-		{
-			e.printStackTrace();
-		}
+		return toViewSpace(point, new Point2D.Double(), transform);
+	}
+	
+	public Point2D toViewSpace(Point2D point, Point2D viewPoint, AffineTransform transform)
+	{
+		getPointSpace(transform).inverseTransform(point, viewPoint);
 		
 		return viewPoint;
 	}
 	
-	public Point2D viewToWorld(Point2D point)
+	public void toViewSpace(double[] src, double[] dst, int count, AffineTransform transform)
 	{
-		Point2D worldPoint = new Point2D.Double();
-		
-		AffineTransform pointSpace = new AffineTransform(worldSpace);
-		
-		pointSpace.concatenate(viewSpace);
-		
-		try {
-			pointSpace.inverseTransform(point, worldPoint);
+		getPointSpace(transform).inverseTransform(src, 0, dst, 0, count);
+	}
+	
+	/*
+	 Maps a point in world space into the space of the active model, or returns null if the
+	 model's transform can't be inverted.
+	 */
+	public Point2D worldToModel(Point2D point)
+	{
+		try
+		{
+			return getModel().getTransform().inverseTransform(point, null);
 		} catch (NoninvertibleTransformException e)
 		{
-			e.printStackTrace();
+			return null;
 		}
+	}
+	
+	public Point2D viewToWorld(Point2D point)
+	{
+		return viewToWorld(point, new Point2D.Double());
+	}
+	
+	public Point2D viewToWorld(Point2D point, Point2D worldPoint)
+	{
+		getViewPointSpace().inverseTransform(point, worldPoint);
 		
 		return worldPoint;
 	}
@@ -0,0 +1,826 @@
+package shapescape;
+
+import java.util.Arrays;
+
+/*
+ Ranks the vertices of a polyline by how much they matter to its shape, so it can be simplified
+ to any tolerance by keeping the vertices ranked above it. Both methods give the first and last
+ vertex an infinite rank, so they are always kept, and rank every other vertex no higher than
+ the ones it depends on, so the vertices ranked above a tolerance are exactly those the method
+ would keep when run with that tolerance. Ranks are in model units either way.
+
+ DOUGLAS_PEUCKER splits the polyline at the vertex furthest from the line through its ends and
+ goes on with both halves. A vertex's rank is its distance from the line it was split off, which
+ bounds how far the simplified line strays from it. Scanning every span for its furthest vertex
+ would cost O(n^2) when each split lands next to an end of its span, as on a spiral, so the
+ spans are searched as Hershberger and Snoeyink do: a span keeps the convex hulls of its path
+ out from a middle vertex, its tag, in both directions, and the furthest vertex is a corner of
+ one of them found by binary search. A split goes on with the side holding the tag and takes
+ that hull back to the split vertex, and only the other side, at most half the span, has its
+ hulls built anew, so each vertex is added to O(log n) hulls and the pass takes O(n log n). A
+ path that crosses itself can leave its hull away from the corner added last; such a vertex is
+ spliced into the middle of the hull, which costs a shift of part of it, so a path that keeps
+ jumping across a hull of very many corners, like a star drawn across a circle, is slower. A
+ span whose ends meet has no line, and its furthest vertex from that point is looked for on
+ every corner of its hulls.
+
+ VISVALINGAM_WHYATT drops the vertex forming the smallest triangle with its neighbours, over
+ and over, keeping the triangles in an indexed heap so each drop costs O(log n). A vertex's rank
+ is the square root of its triangle's area when it was dropped, so a tolerance t keeps the
+ vertices whose triangles were larger than t*t.
+
+ Both report progress and can be cancelled through the listener, which may be null.
+ */
+public class Simplifier
+{
+	public static final int DOUGLAS_PEUCKER = 0;
+	public static final int VISVALINGAM_WHYATT = 1;
+	
+	/*Vertices ranked, or added to a hull, between progress reports.*/
+	private static final int PROGRESS_STEP = 1 << 16;
+	
+	public static double[] rank(int method, double[] xs, double[] ys, int count, ProgressListener listener)
+	{
+		switch(method)
+		{
+		case DOUGLAS_PEUCKER:
+			return douglasPeucker(xs, ys, count, listener);
+		
+		case VISVALINGAM_WHYATT:
+			return visvalingamWhyatt(xs, ys, count, listener);
+		
+		default:
+			throw new IllegalArgumentException("Unknown simplification method " + method);
+		}
+	}
+	
+	public static String getName(int method)
+	{
+		return method == DOUGLAS_PEUCKER ? "Douglas-Peucker" : "Visvalingam-Whyatt";
+	}
+	
+	public static double[] douglasPeucker(double[] xs, double[] ys, int count, ProgressListener listener)
+	{
+		double[] rank = new double[count];
+		
+		if(count == 0)
+			return rank;
+		
+		rank[0] = rank[count-1] = Double.POSITIVE_INFINITY;
+		
+		/*Hulls of the current span's vertices before and after its tag, both including the tag.*/
+		PathHull before = new PathHull(xs, ys);
+		PathHull after = new PathHull(xs, ys);
+		
+		/*Pairs of [first, last] slots of the spans still to be split, whose hulls aren't built yet.*/
+		int[] stack = new int[64];
+		int depth = 0;
+		
+		stack[depth++] = 0;
+		stack[depth++] = count-1;
+		
+		int ranked = 0;
+		long steps = 0;
+		
+		while(depth > 0)
+		{
+			int last = stack[--depth];
+			int first = stack[--depth];
+			
+			if(last-first < 2)
+				continue;
+			
+			int tag = (first+last) >>> 1;
+			
+			before.start(tag, tag-first);
+			after.start(tag, last-tag);
+			
+			for(int i = tag-1; i >= first; i--)
+			{
+				before.add(i);
+				
+				if(listener != null && ++steps % PROGRESS_STEP == 0)
+					listener.progress(ranked, count);
+			}
+			
+			for(int i = tag+1; i <= last; i++)
+			{
+				after.add(i);
+				
+				if(listener != null && ++steps % PROGRESS_STEP == 0)
+					listener.progress(ranked, count);
+			}
+			
+			/*Splits the span until the split lands on the tag, going on with the part that keeps it.*/
+			while(true)
+			{
+				double x0 = xs[first];
+				double y0 = ys[first];
+				
+				double dx = xs[last]-x0;
+				double dy = ys[last]-y0;
+				
+				int furthestBefore;
+				int furthestAfter;
+				
+				double distanceBefore;
+				double distanceAfter;
+				
+				if(dx == 0 && dy == 0)
+				{
+					furthestBefore = before.furthestFrom(x0, y0);
+					furthestAfter = after.furthestFrom(x0, y0);
+					
+					distanceBefore = Math.hypot(xs[furthestBefore]-x0, ys[furthestBefore]-y0);
+					distanceAfter = Math.hypot(xs[furthestAfter]-x0, ys[furthestAfter]-y0);
+				}
+				else
+				{
+					double length = Math.hypot(dx, dy);
+					
+					furthestBefore = before.furthestFrom(x0, y0, dx, dy);
+					furthestAfter = after.furthestFrom(x0, y0, dx, dy);
+					
+					distanceBefore = Math.abs((xs[furthestBefore]-x0)*dy - (ys[furthestBefore]-y0)*dx) / length;
+					distanceAfter = Math.abs((xs[furthestAfter]-x0)*dy - (ys[furthestAfter]-y0)*dx) / length;
+				}
+				
+				int furthest = distanceBefore > distanceAfter ? furthestBefore : furthestAfter;
+				double distance = Math.max(distanceBefore, distanceAfter);
+				
+				if(distance == 0)
+				{
+					/*Every vertex of the span lies on the line, and none of them is needed.*/
+					for(int i = first+1; i < last; i++)
+						rank[i] = 0;
+					
+					ranked += last-first-1;
+					
+					break;
+				}
+				
+				/*The span's ends outrank it, and the lower of them is the split it came from.*/
+				rank[furthest] = Math.min(distance, Math.min(rank[first], rank[last]));
+				
+				if(listener != null && ++steps % PROGRESS_STEP == 0)
+					listener.progress(ranked, count);
+				
+				ranked++;
+				
+				if(depth+4 > stack.length)
+					stack = Arrays.copyOf(stack, stack.length*2);
+				
+				if(furthest == tag)
+				{
+					stack[depth++] = first;
+					stack[depth++] = tag;
+					stack[depth++] = tag;
+					stack[depth++] = last;
+					
+					break;
+				}
+				
+				if(furthest > tag)
+				{
+					after.split(furthest);
+					
+					stack[depth++] = furthest;
+					stack[depth++] = last;
+					
+					last = furthest;
+				}
+				else
+				{
+					before.split(furthest);
+					
+					stack[depth++] = first;
+					stack[depth++] = furthest;
+					
+					first = furthest;
+				}
+			}
+		}
+		
+		return rank;
+	}
+	
+	public static double[] visvalingamWhyatt(double[] xs, double[] ys, int count, ProgressListener listener)
+	{
+		double[] rank = new double[count];
+		
+		if(count == 0)
+			return rank;
+		
+		rank[0] = rank[count-1] = Double.POSITIVE_INFINITY;
+		
+		if(count < 3)
+			return rank;
+		
+		/*The neighbours of each vertex among those not dropped yet.*/
+		int[] previous = new int[count];
+		int[] next = new int[count];
+		
+		for(int i = 0; i < count; i++)
+		{
+			previous[i] = i-1;
+			next[i] = i+1;
+		}
+		
+		/*Triangle areas, doubled, until a vertex is dropped and gets its rank.*/
+		double[] area = rank;
+		
+		for(int i = 1; i < count-1; i++)
+			area[i] = triangle(xs, ys, i-1, i, i+1);
+		
+		AreaHeap heap = new AreaHeap(area, 1, count-1);
+		
+		double floor = 0;
+		
+		for(int dropped = 1; !heap.isEmpty(); dropped++)
+		{
+			int vertex = heap.pop();
+			
+			/*A vertex can't matter less than one dropped before it that it now stands in for.*/
+			floor = Math.max(floor, area[vertex]);
+			
+			rank[vertex] = Math.sqrt(floor/2);
+			
+			int before = previous[vertex];
+			int after = next[vertex];
+			
+			next[before] = after;
+			previous[after] = before;
+			
+			if(before > 0)
+			{
+				area[before] = triangle(xs, ys, previous[before], before, after);
+				heap.update(before);
+			}
+			
+			if(after < count-1)
+			{
+				area[after] = triangle(xs, ys, before, after, next[after]);
+				heap.update(after);
+			}
+			
+			if(listener != null && dropped % PROGRESS_STEP == 0)
+				listener.progress(dropped, count);
+		}
+		
+		return rank;
+	}
+	
+	/*
+	 Twice the area of the triangle formed by three vertices.
+	 */
+	private static double triangle(double[] xs, double[] ys, int a, int b, int c)
+	{
+		return Math.abs((xs[b]-xs[a])*(ys[c]-ys[a]) - (xs[c]-xs[a])*(ys[b]-ys[a]));
+	}
+	
+	/*
+	 The convex hull of a path growing one vertex at a time away from its tag, after Melkman: a
+	 deque of slots running counterclockwise around the hull, with the last corner added at both
+	 ends. A new vertex that the edges at either end face is outside, and the corners it hides are
+	 popped off those ends. Melkman's test alone is only exact on a path that doesn't cross itself,
+	 so a vertex that passes it is checked against the whole hull by binary search, and one that
+	 left the hull away from the ends is spliced into the middle of the deque, shifting the
+	 shorter side.
+	 
+	 Every change is recorded, so split() can take the hull back to what it was when a corner was
+	 added, which is the hull of the path from the tag to that corner.
+	 */
+	private static class PathHull
+	{
+		private static final int PUSH = 0;
+		private static final int POP_TOP = 1;
+		private static final int POP_BOTTOM = 2;
+		private static final int SPLICE_BOTTOM = 3;
+		private static final int SPLICE_TOP = 4;
+		
+		private double[] xs;
+		private double[] ys;
+		
+		/*The corners are deque[bottom..top-1], and deque[top] is deque[bottom] again.*/
+		private int[] deque = new int[0];
+		private int bottom;
+		private int top;
+		
+		/*
+		 Records of the changes, each ending with its kind: [slot, PUSH], [slot, POP_TOP],
+		 [slot, POP_BOTTOM], or [removed corners..., count, position, slot, SPLICE_*].
+		 */
+		private int[] history = new int[64];
+		private int historySize;
+		
+		PathHull(double[] xs, double[] ys)
+		{
+			this.xs = xs;
+			this.ys = ys;
+		}
+		
+		/*
+		 Empties the hull down to the tag, making room for length more vertices.
+		 */
+		void start(int tag, int length)
+		{
+			/*Each vertex added moves either end out by at most one.*/
+			if(deque.length < 2*length+3)
+				deque = new int[2*length+3];
+			
+			bottom = top = length+1;
+			deque[top] = tag;
+			
+			historySize = 0;
+		}
+		
+		void add(int slot)
+		{
+			double px = xs[slot];
+			double py = ys[slot];
+			
+			if(top == bottom)
+			{
+				/*Copies of the tag aren't corners, and would leave the hull an edge with no length.*/
+				if(px != xs[deque[top]] || py != ys[deque[top]])
+					push(slot);
+				
+				return;
+			}
+			
+			if(top-bottom == 2 && cross(deque[bottom], deque[bottom+1], px, py) == 0)
+			{
+				/*The hull is still a segment, and the vertex lies on its line.*/
+				int end = deque[top];
+				int other = deque[top-1];
+				
+				double ux = xs[end]-xs[other];
+				double uy = ys[end]-ys[other];
+				
+				if((px-xs[end])*ux + (py-ys[end])*uy > 0)
+				{
+					popTop();
+					popBottom();
+					push(slot);
+				}
+				else if((px-xs[other])*ux + (py-ys[other])*uy < 0)
+				{
+					popTop();
+					popTop();
+					push(slot);
+				}
+				
+				return;
+			}
+			
+			boolean topFaces = cross(deque[top-1], deque[top], px, py) < 0;
+			boolean bottomFaces = cross(deque[bottom], deque[bottom+1], px, py) < 0;
+			
+			if(topFaces || bottomFaces)
+			{
+				while(top-1 > bottom && cross(deque[top-1], deque[top], px, py) < 0)
+					popTop();
+				
+				while(bottom+1 < top && cross(deque[bottom], deque[bottom+1], px, py) < 0)
+					popBottom();
+				
+				push(slot);
+			}
+			else if(top-bottom > 2)
+			{
+				int edge = facingEdge(px, py);
+				
+				if(edge >= 0)
+					splice(slot, edge);
+			}
+		}
+		
+		/*
+		 Undoes every change made after the corner was added.
+		 */
+		void split(int corner)
+		{
+			while(historySize > 0)
+			{
+				int kind = history[historySize-1];
+				
+				if((kind == PUSH || kind == SPLICE_BOTTOM || kind == SPLICE_TOP) && history[historySize-2] == corner)
+					return;
+				
+				historySize -= 2;
+				
+				int slot = history[historySize];
+				
+				switch(kind)
+				{
+				case PUSH:
+					top--;
+					bottom++;
+					break;
+				
+				case POP_TOP:
+					deque[++top] = slot;
+					break;
+				
+				case POP_BOTTOM:
+					deque[--bottom] = slot;
+					break;
+				
+				default:
+					int position = history[--historySize];
+					int removed = history[--historySize];
+					
+					if(kind == SPLICE_BOTTOM)
+					{
+						System.arraycopy(deque, bottom, deque, bottom-removed+1, position-bottom);
+						bottom -= removed-1;
+						
+						for(int i = position; i > position-removed; i--)
+							deque[i] = history[--historySize];
+					}
+					else
+					{
+						System.arraycopy(deque, position+1, deque, position+removed, top-position);
+						top += removed-1;
+						
+						for(int i = position+removed-1; i >= position; i--)
+							deque[i] = history[--historySize];
+					}
+				}
+			}
+		}
+		
+		/*
+		 The corner furthest from the line through (x0, y0) along (dx, dy).
+		 */
+		int furthestFrom(double x0, double y0, double dx, double dy)
+		{
+			int high = extreme(x0, y0, dx, dy);
+			int low = extreme(x0, y0, -dx, -dy);
+			
+			double highDistance = Math.abs((xs[high]-x0)*dy - (ys[high]-y0)*dx);
+			double lowDistance = Math.abs((xs[low]-x0)*dy - (ys[low]-y0)*dx);
+			
+			return lowDistance > highDistance ? low : high;
+		}
+		
+		/*
+		 The corner furthest from a point, for spans that end where they start. The hull has no
+		 order to search for it in, so every corner is looked at.
+		 */
+		int furthestFrom(double x0, double y0)
+		{
+			int furthest = deque[top];
+			double furthestSq = -1;
+			
+			for(int i = bottom; i < Math.max(top, bottom+1); i++)
+			{
+				double px = xs[deque[i]]-x0;
+				double py = ys[deque[i]]-y0;
+				
+				double distanceSq = px*px + py*py;
+				
+				if(distanceSq > furthestSq)
+				{
+					furthest = deque[i];
+					furthestSq = distanceSq;
+				}
+			}
+			
+			return furthest;
+		}
+		
+		/*
+		 The corner reaching furthest to the right of the direction (dx, dy). Walking round the
+		 hull from the bottom corner in whichever direction first leads right, the corners keep
+		 going right up to the furthest and stay left of where the walk started after it, so the
+		 first corner that is either is found by binary search.
+		 */
+		private int extreme(double x0, double y0, double dx, double dy)
+		{
+			int corners = top-bottom;
+			
+			if(corners < 3)
+			{
+				int a = deque[bottom];
+				int b = deque[Math.min(bottom+1, top)];
+				
+				return reach(b, x0, y0, dx, dy) > reach(a, x0, y0, dx, dy) ? b : a;
+			}
+			
+			double start = reach(deque[bottom], x0, y0, dx, dy);
+			
+			boolean forward = reach(deque[bottom+1], x0, y0, dx, dy) > start;
+			
+			if(!forward && reach(deque[top-1], x0, y0, dx, dy) <= start)
+				return deque[bottom];
+			
+			int low = 1;
+			int high = corners-1;
+			
+			while(low < high)
+			{
+				int middle = (low+high) >>> 1;
+				
+				int corner = forward ? deque[bottom+middle] : deque[top-middle];
+				int next = forward ? deque[bottom+middle+1] : deque[top-middle-1];
+				
+				double here = reach(corner, x0, y0, dx, dy);
+				
+				if(reach(next, x0, y0, dx, dy) <= here || here < start)
+					high = middle;
+				else
+					low = middle+1;
+			}
+			
+			return forward ? deque[bottom+low] : deque[top-low];
+		}
+		
+		/*How far a vertex lies to the right of the line, times the line's direction's length.*/
+		private double reach(int slot, double x0, double y0, double dx, double dy)
+		{
+			return (xs[slot]-x0)*dy - (ys[slot]-y0)*dx;
+		}
+		
+		/*Twice the signed area of the triangle a, b, p, positive when p is left of a to b.*/
+		private double cross(int a, int b, double px, double py)
+		{
+			double ax = xs[a];
+			double ay = ys[a];
+			
+			return (xs[b]-ax)*(py-ay) - (ys[b]-ay)*(px-ax);
+		}
+		
+		/*
+		 An edge, deque[i] to deque[i+1] for the i returned, that faces a point outside the hull,
+		 or -1 if the point lies inside or on it. Neither end edge may face the point, so it is
+		 outside if it is past the edge of the triangle, in the fan between the bottom corner and
+		 each edge, that its direction from the bottom corner falls in, found by binary search.
+		 */
+		private int facingEdge(double px, double py)
+		{
+			int apex = deque[bottom];
+			
+			/*Only possible by rounding, since the end edges would face the point.*/
+			if(cross(apex, deque[bottom+1], px, py) < 0 || cross(apex, deque[top-1], px, py) > 0)
+				return -1;
+			
+			/*The last corner the point isn't to the right of, as seen from the apex.*/
+			int low = bottom+1;
+			int high = top-1;
+			
+			while(low < high)
+			{
+				int middle = (low+high+1) >>> 1;
+				
+				if(cross(apex, deque[middle], px, py) >= 0)
+					low = middle;
+				else
+					high = middle-1;
+			}
+			
+			if(low < top-1)
+				return cross(deque[low], deque[low+1], px, py) < 0 ? low : -1;
+			
+			/*On the line through the apex and the last corner, so outside if not between them.*/
+			double ux = xs[deque[low]]-xs[apex];
+			double uy = ys[deque[low]]-ys[apex];
+			
+			double along = (px-xs[apex])*ux + (py-ys[apex])*uy;
+			
+			if(along >= 0 && along <= ux*ux + uy*uy)
+				return -1;
+			
+			for(int i = top-2; i > bottom; i--)
+			{
+				if(cross(deque[i], deque[i+1], px, py) < 0)
+					return i;
+			}
+			
+			return -1;
+		}
+		
+		/*
+		 Replaces the corners hidden by a vertex outside the hull, which the given edge faces and
+		 the end edges don't, with the vertex, moving whichever side of them is shorter.
+		 */
+		private void splice(int slot, int edge)
+		{
+			double px = xs[slot];
+			double py = ys[slot];
+			
+			/*The run of edges deque[i] to deque[i+1] that face the vertex.*/
+			int first = edge;
+			int last = edge;
+			
+			while(first-1 > bottom && cross(deque[first-1], deque[first], px, py) < 0)
+				first--;
+			
+			while(last+1 < top-1 && cross(deque[last+1], deque[last+2], px, py) < 0)
+				last++;
+			
+			int removed = last-first;
+			
+			ensureHistory(removed+4);
+			
+			for(int i = first+1; i <= last; i++)
+				history[historySize++] = deque[i];
+			
+			history[historySize++] = removed;
+			
+			if(first+1-bottom <= top-last)
+			{
+				System.arraycopy(deque, bottom, deque, bottom+removed-1, first+1-bottom);
+				bottom += removed-1;
+				
+				deque[last] = slot;
+				
+				history[historySize++] = last;
+				history[historySize++] = slot;
+				history[historySize++] = SPLICE_BOTTOM;
+			}
+			else
+			{
+				System.arraycopy(deque, last+1, deque, first+2, top-last);
+				top -= removed-1;
+				
+				deque[first+1] = slot;
+				
+				history[historySize++] = first+1;
+				history[historySize++] = slot;
+				history[historySize++] = SPLICE_TOP;
+			}
+		}
+		
+		private void push(int slot)
+		{
+			deque[++top] = slot;
+			deque[--bottom] = slot;
+			
+			record(slot, PUSH);
+		}
+		
+		private void popTop()
+		{
+			record(deque[top--], POP_TOP);
+		}
+		
+		private void popBottom()
+		{
+			record(deque[bottom++], POP_BOTTOM);
+		}
+		
+		private void record(int slot, int kind)
+		{
+			ensureHistory(2);
+			
+			history[historySize++] = slot;
+			history[historySize++] = kind;
+		}
+		
+		private void ensureHistory(int more)
+		{
+			if(historySize+more > history.length)
+				history = Arrays.copyOf(history, Math.max(history.length*2, historySize+more));
+		}
+	}
+	
+	/*
+	 Binary min-heap of the vertices in [from, to), ordered by their values in area. Each entry
+	 carries a copy of its vertex's value, so sifting doesn't have to look it up, and each vertex's
+	 position in the heap is tracked, so its value can be changed in place. Ties go to the lower
+	 slot, so the order vertices come out in only depends on the polyline.
+	 */
+	private static class AreaHeap
+	{
+		private double[] area;
+		
+		private int[] heap;
+		private double[] keys;
+		
+		private int[] positions;
+		
+		private int size;
+		
+		AreaHeap(double[] area, int from, int to)
+		{
+			this.area = area;
+			
+			size = to-from;
+			
+			heap = new int[size];
+			keys = new double[size];
+			
+			positions = new int[area.length];
+			
+			for(int i = 0; i < size; i++)
+			{
+				heap[i] = from+i;
+				keys[i] = area[from+i];
+				
+				positions[from+i] = i;
+			}
+			
+			for(int i = size/2-1; i >= 0; i--)
+				siftDown(i, heap[i], keys[i]);
+		}
+		
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+		
+		int pop()
+		{
+			int top = heap[0];
+			
+			size--;
+			
+			if(size > 0)
+				siftDown(0, heap[size], keys[size]);
+			
+			positions[top] = -1;
+			
+			return top;
+		}
+		
+		/*
+		 Moves a vertex to its place after its value changed.
+		 */
+		void update(int vertex)
+		{
+			int position = positions[vertex];
+			
+			if(position < 0)
+				return;
+			
+			double key = area[vertex];
+			
+			if(less(key, vertex, keys[position], heap[position]))
+				siftUp(position, vertex, key);
+			else
+				siftDown(position, vertex, key);
+		}
+		
+		private static boolean less(double keyA, int a, double keyB, int b)
+		{
+			return keyA < keyB || (keyA == keyB && a < b);
+		}
+		
+		private void siftUp(int position, int vertex, double key)
+		{
+			while(position > 0)
+			{
+				int parent = (position-1)/2;
+				
+				if(!less(key, vertex, keys[parent], heap[parent]))
+					break;
+				
+				move(parent, position);
+				
+				position = parent;
+			}
+			
+			place(position, vertex, key);
+		}
+		
+		private void siftDown(int position, int vertex, double key)
+		{
+			while(true)
+			{
+				int child = 2*position+1;
+				
+				if(child >= size)
+					break;
+				
+				if(child+1 < size && less(keys[child+1], heap[child+1], keys[child], heap[child]))
+					child++;
+				
+				if(!less(keys[child], heap[child], key, vertex))
+					break;
+				
+				move(child, position);
+				
+				position = child;
+			}
+			
+			place(position, vertex, key);
+		}
+		
+		private void move(int from, int to)
+		{
+			heap[to] = heap[from];
+			keys[to] = keys[from];
+			
+			positions[heap[to]] = to;
+		}
+		
+		private void place(int position, int vertex, double key)
+		{
+			heap[position] = vertex;
+			keys[position] = key;
+			
+			positions[vertex] = position;
+		}
+	}
+}
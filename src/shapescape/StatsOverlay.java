@@ -0,0 +1,133 @@
+package shapescape;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import shapescape.command.CommandQueue;
+
+/*
+ A heads-up display of how the modeler is performing: frame rate and frame-time percentiles
+ over the last SAMPLES frames, the size of the model and of the undo history, and heap use.
+ Frames are recorded whether or not the display is showing, so it opens with real numbers.
+ */
+public class StatsOverlay
+{
+	private static final int SAMPLES = 240;
+	
+	private static final int PADDING = 4;
+	
+	private static final double MB = 1024*1024;
+	
+	private Color background = new Color(0,0,0,160);
+	private Color textColor = Color.WHITE;
+	
+	/*Ring buffers of when each frame ended and how long it took, in nanoseconds.*/
+	private long[] ends = new long[SAMPLES];
+	private long[] durations = new long[SAMPLES];
+	
+	private int next;
+	private int count;
+	
+	private long[] sorted = new long[SAMPLES];
+	
+	private Rectangle bounds = new Rectangle();
+	
+	public void addFrame(long start, long end)
+	{
+		ends[next] = end;
+		durations[next] = end-start;
+		
+		next = (next+1) % SAMPLES;
+		count = Math.min(count+1, SAMPLES);
+	}
+	
+	/*
+	 Frames per second over the recorded frames that ended within the last second before the newest.
+	 */
+	public double getFrameRate()
+	{
+		if(count < 2)
+			return 0;
+		
+		long newest = ends[(next+SAMPLES-1) % SAMPLES];
+		long oldest = newest;
+		
+		int frames = 0;
+		
+		for(int i = 1; i <= count; i++)
+		{
+			long end = ends[(next+SAMPLES-i) % SAMPLES];
+			
+			if(newest-end > 1_000_000_000L)
+				break;
+			
+			oldest = end;
+			frames++;
+		}
+		
+		return newest > oldest ? (frames-1)*1e9/(newest-oldest) : 0;
+	}
+	
+	/*
+	 Returns the frame time below which the given fraction of recorded frames fall, in milliseconds.
+	 */
+	public double getFrameTime(double fraction)
+	{
+		if(count == 0)
+			return 0;
+		
+		System.arraycopy(durations, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		
+		return sorted[Math.min(count-1, (int)(fraction*count))]/1e6;
+	}
+	
+	public void paint(Graphics2D g2d, Scene scene, CommandQueue commandQueue)
+	{
+		Runtime runtime = Runtime.getRuntime();
+		
+		long heapUsed = runtime.totalMemory()-runtime.freeMemory();
+		
+		String[] lines = {
+				String.format("%.1f fps", getFrameRate()),
+				String.format("frame p50 %.2f  p95 %.2f  p99 %.2f ms", getFrameTime(0.5), getFrameTime(0.95), getFrameTime(0.99)),
+				String.format("%,d vertices in %,d shapes, %,d selected", scene.getVertexCount(), scene.size(), scene.getSelectedCount()),
+				String.format("history %d, %d undoable, %.1f MB", commandQueue.getHistorySize(), commandQueue.getUndoCount(), commandQueue.getHistoryBytes()/MB),
+				String.format("heap %.0f / %.0f MB", heapUsed/MB, runtime.maxMemory()/MB)
+		};
+		
+		FontMetrics metrics = g2d.getFontMetrics();
+		
+		int width = 0;
+		
+		for(String line : lines)
+			width = Math.max(width, metrics.stringWidth(line));
+		
+		bounds.setBounds(3, 3, width+2*PADDING, lines.length*metrics.getHeight()+2*PADDING);
+		
+		g2d.setPaint(background);
+		g2d.fill(bounds);
+		
+		g2d.setPaint(textColor);
+		
+		int y = bounds.y+PADDING+metrics.getAscent();
+		
+		for(String line : lines)
+		{
+			g2d.drawString(line, bounds.x+PADDING, y);
+			
+			y += metrics.getHeight();
+		}
+	}
+	
+	/*
+	 The area the display covered when it was last painted.
+	 */
+	public Rectangle getBounds()
+	{
+		return new Rectangle(bounds);
+	}
+}
@@ -1,82 +1,128 @@
 package shapescape;
 
-import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
-public class Vertex extends Point2D implements Cloneable
+/*
+ Lightweight view of a single vertex in a Model. The coordinates and selection
+ state live in the model's columns; a Vertex only remembers the vertex's ID.
+
+ A view outlives its vertex, such as one held while the vertex is undone. Once the vertex has
+ been removed the view reads as an unselected vertex at (NaN, NaN), and changes to it are
+ ignored; isRemoved() tells the two apart.
+ */
+public class Vertex extends Point2D
 {
-	private double x,y;
+	public static final double GRAB_RADIUS = 10;
+	public static final double HALF_RADIUS = GRAB_RADIUS/2;
 	
-	private Rectangle2D.Double grabBox;
+	private Model model;
 	
-	private double grabRadius = 10;
-	private double halfRadius = 5;
+	private int id;
 	
-	private boolean selected = false;
+	public Vertex(Model model, int id)
+	{
+		this.model = model;
+		this.id = id;
+	}
 	
-	public Vertex(Point2D point)
+	public int getId()
 	{
-		grabBox = new Rectangle2D.Double(0,0,grabRadius,grabRadius);
-		setLocation(point);
+		return id;
 	}
 	
-	public Vertex(double x, double y)
+	public int getSlot()
 	{
-		grabBox = new Rectangle2D.Double(0,0,grabRadius,grabRadius);
-		
-		this.x = x;
-		this.y = y;
+		return model.getSlot(id);
 	}
 	
+	public Model getModel()
+	{
+		return model;
+	}
+	
+	/*
+	 Whether the vertex is no longer in its model.
+	 */
+	public boolean isRemoved()
+	{
+		return getSlot() < 0;
+	}
 	
 	public boolean isSelected()
 	{
-		return selected;
+		int slot = getSlot();
+		
+		return slot >= 0 && model.isSelected(slot);
 	}
 	
 	public void setSelected(boolean selected)
 	{
-		this.selected = selected;
+		int slot = getSlot();
+		
+		if(slot >= 0)
+			model.setSelected(slot, selected);
 	}
-
+	
 	@Override
 	public double getX()
 	{
-		return x;
+		int slot = getSlot();
+		
+		return slot < 0 ? java.lang.Double.NaN : model.getX(slot);
 	}
-
+	
 	@Override
 	public double getY()
 	{
-		return y;
+		int slot = getSlot();
+		
+		return slot < 0 ? java.lang.Double.NaN : model.getY(slot);
 	}
 	
 	public Rectangle2D getGrabBox()
 	{
-		return grabBox;
+		return getGrabBox(getX(), getY());
 	}
-
+	
+	public static Rectangle2D getGrabBox(double x, double y)
+	{
+		return new Rectangle2D.Double(x-HALF_RADIUS, y-HALF_RADIUS, GRAB_RADIUS, GRAB_RADIUS);
+	}
+	
 	@Override
 	public void setLocation(double x, double y)
 	{
-		this.x = x;
-		this.y = y;
+		int slot = getSlot();
 		
-		this.grabBox.x = x-halfRadius;
-		this.grabBox.y = y-halfRadius;
+		if(slot >= 0)
+			model.moveVertex(slot, x, y);
 	}
 	
-	public String toString()
+	/*
+	 Two views are equal when they refer to the same vertex, even if another vertex shares its location.
+	 */
+	@Override
+	public boolean equals(Object obj)
 	{
-		return String.format("(%f, %f)", x, y);
+		if(obj instanceof Vertex)
+		{
+			Vertex other = (Vertex)obj;
+			
+			return other.model == model && other.id == id;
+		}
+		
+		return false;
 	}
 	
-	public Vertex clone()
+	@Override
+	public int hashCode()
 	{
-		Vertex clone = new Vertex(x,y);
-		clone.setSelected(selected);
-		
-		return clone;
+		return 31*System.identityHashCode(model) + id;
+	}
+	
+	public String toString()
+	{
+		return String.format("(%f, %f)", getX(), getY());
 	}
 }
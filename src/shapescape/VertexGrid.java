@@ -0,0 +1,84 @@
+package shapescape;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ Uniform grid over model space used to answer hit-tests and nearest vertex searches without
+ scanning every vertex. Cells hold vertex slots; coordinates are read back from the owning model.
+ */
+public class VertexGrid extends CellGrid
+{
+	private boolean skipSelected;
+	
+	public VertexGrid(Model model, double cellSize)
+	{
+		super(model, cellSize);
+	}
+	
+	public void add(int slot, double x, double y)
+	{
+		addToCell(cellOf(x), cellOf(y), slot);
+	}
+	
+	public void remove(int slot, double x, double y)
+	{
+		removeFromCell(cellOf(x), cellOf(y), slot);
+	}
+	
+	public void rebuild()
+	{
+		clear();
+		
+		for(int i = 0; i < model.size(); i++)
+			add(i, model.getX(i), model.getY(i));
+	}
+	
+	public void query(Rectangle2D area, IntList result)
+	{
+		List<IntList> cells = new ArrayList<IntList>();
+		
+		getCells(area, cells);
+		
+		for(IntList cell : cells)
+			collect(cell, area, result);
+	}
+	
+	/*
+	 Returns the slot of the vertex nearest to (x, y), or -1 if none lies within maxDistance.
+	 Distances are measured through the linear part of metric, so passing the transform to the
+	 screen finds the nearest vertex as it appears there. Selected vertices are passed over if
+	 skipSelected is set, such as while they are being dragged.
+	 */
+	public int nearest(double x, double y, AffineTransform metric, double maxDistance, boolean skipSelected)
+	{
+		this.skipSelected = skipSelected;
+		
+		return nearest(x, y, metric, maxDistance);
+	}
+	
+	@Override
+	protected double distanceSq(int slot)
+	{
+		if(skipSelected && model.isSelected(slot))
+			return Double.POSITIVE_INFINITY;
+		
+		return measure(model.getX(slot)-queryX, model.getY(slot)-queryY);
+	}
+	
+	private void collect(IntList cell, Rectangle2D area, IntList result)
+	{
+		for(int i = 0; i < cell.size(); i++)
+		{
+			int slot = cell.get(i);
+			
+			double x = model.getX(slot);
+			double y = model.getY(slot);
+			
+			if(x >= area.getMinX() && x <= area.getMaxX() && y >= area.getMinY() && y <= area.getMaxY())
+				result.add(slot);
+		}
+	}
+}
@@ -0,0 +1,739 @@
+package shapescape.command;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+import shapescape.Model;
+import shapescape.Scene;
+import shapescape.SceneSnapshot;
+import shapescape.ShapeScape;
+import shapescape.profiling.JournalEvent;
+
+/*
+ Write-ahead log of every edit, so a crash loses at most the last few moments of work. Each
+ command the queue executes, undoes or redoes is written as a compact binary record of what it
+ did to the scene, tagged with the model it went to and the IDs of the vertices it touched,
+ and the scene can be rebuilt on startup by replaying them over the last snapshot.
+
+ Records are encoded on the event thread, which is cheap, and handed to a writer thread that
+ takes everything that has piled up since its last write, writes it in one go and then forces
+ it to the device once for the whole batch. The event thread never waits on the disk.
+
+ Each record is laid out as [length][flags][type][payload][CRC-32], where length counts the
+ flags, type and payload. A crash can leave the last record cut short; replay stops at the
+ first record that is short or fails its check, and the tail from there on is dropped.
+
+ Once the journal outgrows the last snapshot, or the scene changes in a way no command records,
+ such as a file being opened, the scene is captured and the writer replaces the snapshot with
+ it and starts the journal over. The snapshot is written to a temporary file and renamed into
+ place, and both files carry a generation number, so a journal is only ever replayed over the
+ snapshot it continues from.
+
+ Replay doesn't go through the queue, so the history starts out empty after a restart.
+ Selection changes aren't commands, and come back as they were at the last snapshot.
+
+ The directory is locked for as long as the journal is open. A second modeler started on the
+ same directory would append to and compact the same files, so it runs without a journal.
+ */
+public class CommandJournal
+{
+	static final byte CREATE_VERTEX = 1;
+	static final byte DRAG = 3;
+	static final byte ADD_MODEL = 4;
+	static final byte SIMPLIFY = 5;
+	
+	/*Bumped whenever a record's layout changes, so a journal in the old layout isn't replayed.*/
+	public static final int MAGIC = 0x53534A32; // "SSJ2"
+	
+	private static final int HEADER_SIZE = 12;
+	
+	/*Set in a record's flags when it undoes a command rather than executing it.*/
+	private static final int FLAG_UNDO = 1;
+	
+	/*Journals smaller than this are never compacted, however small the scene.*/
+	private static final long MIN_COMPACT_BYTES = 4L << 20;
+	
+	private static final Object CLOSE = new Object();
+	
+	private ShapeScape modeler;
+	
+	private File journalFile;
+	private File snapshotFile;
+	private File snapshotTemp;
+	private File lockFile;
+	
+	/*Held on lockFile from open() until close().*/
+	private FileChannel lockChannel;
+	private FileLock lock;
+	
+	/*Only touched by the writer thread once it has started.*/
+	private FileChannel channel;
+	
+	private BlockingQueue<Object> queue;
+	
+	private Thread writer;
+	
+	private volatile boolean failed;
+	
+	/*Event thread state.*/
+	private long generation;
+	
+	private long journalBytes;
+	private long snapshotBytes;
+	
+	private ByteArrayOutputStream record;
+	private DataOutputStream recordOut;
+	
+	private CRC32 crc;
+	
+	/*Set when the command in the record buffer couldn't be journaled.*/
+	private boolean unjournaled;
+	
+	private volatile boolean closed;
+	
+	private CommandJournal(File directory, ShapeScape modeler)
+	{
+		this.modeler = modeler;
+		
+		journalFile = new File(directory, "journal.bin");
+		snapshotFile = new File(directory, "snapshot.bin");
+		snapshotTemp = new File(directory, "snapshot.tmp");
+		lockFile = new File(directory, "journal.lock");
+		
+		queue = new LinkedBlockingQueue<Object>();
+		
+		record = new ByteArrayOutputStream(256);
+		recordOut = new DataOutputStream(record);
+		
+		crc = new CRC32();
+	}
+	
+	/*
+	 Restores the scene kept in directory into the modeler, from the snapshot and the journal
+	 after it, then starts journaling the modeler's commands there. Returns null, after warning
+	 the user, if another modeler already has the directory open.
+	 */
+	public static CommandJournal open(File directory, ShapeScape modeler) throws IOException
+	{
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can't create " + directory);
+		
+		CommandJournal journal = new CommandJournal(directory, modeler);
+		
+		if(!journal.lock())
+		{
+			journal.report("Another modeler is already using the journal in " + directory
+					+ ".\nEdits made here won't be recovered after a crash.", JOptionPane.WARNING_MESSAGE);
+			
+			return null;
+		}
+		
+		boolean recovered;
+		
+		try
+		{
+			recovered = journal.recover();
+		} catch (IOException e)
+		{
+			journal.unlock();
+			
+			throw e;
+		}
+		
+		journal.writer = new Thread(journal::writeLoop, "Command journal");
+		journal.writer.setDaemon(true);
+		journal.writer.start();
+		
+		modeler.setJournal(journal);
+		
+		/*Without a snapshot and journal that go together, start both over from what was restored.*/
+		if(!recovered)
+			journal.snapshot();
+		
+		return journal;
+	}
+	
+	/*
+	 Takes a snapshot of the scene as it is now, for the writer to replace the last one with.
+	 Called whenever the scene changes in a way the journal can't record, and when it gets long.
+	 */
+	public void snapshot()
+	{
+		if(closed || failed)
+			return;
+		
+		SceneSnapshot snapshot = SceneSnapshot.capture(modeler.getScene(), ++generation);
+		
+		snapshotBytes = snapshot.getEstimatedSize();
+		journalBytes = 0;
+		
+		queue.add(snapshot);
+	}
+	
+	/*
+	 Records an empty model being added on top of the scene.
+	 */
+	public void modelAdded()
+	{
+		if(begin(false))
+		{
+			record.write(ADD_MODEL);
+			
+			end();
+		}
+	}
+	
+	/*
+	 Writes out everything recorded so far and stops the writer, waiting for it to finish.
+	 */
+	public void close()
+	{
+		if(closed)
+			return;
+		
+		closed = true;
+		
+		queue.add(CLOSE);
+		
+		try
+		{
+			writer.join();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		unlock();
+	}
+	
+	/*
+	 Takes the directory's lock. Returns false if another modeler holds it.
+	 */
+	private boolean lock() throws IOException
+	{
+		lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		
+		try
+		{
+			lock = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e)
+		{
+			/*Held by another journal in this process.*/
+			lock = null;
+		}
+		
+		if(lock == null)
+		{
+			lockChannel.close();
+			lockChannel = null;
+			
+			return false;
+		}
+		
+		return true;
+	}
+	
+	private void unlock()
+	{
+		try
+		{
+			if(lockChannel != null)
+				lockChannel.close();
+		} catch (IOException e)
+		{
+			/*Closing the channel releases the lock, and the process ending does too.*/
+		}
+		
+		lockChannel = null;
+		lock = null;
+	}
+	
+	/*
+	 Tells the user about a problem with the journal, the way failed operations are reported.
+	 Safe to call from any thread.
+	 */
+	private void report(String message, int type)
+	{
+		SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(modeler, message, "Command Journal", type));
+	}
+	
+	/*
+	 Called by the queue after a command was executed or redone.
+	 */
+	void executed(ReversibleCommand command)
+	{
+		if(begin(false))
+			write(command, false);
+	}
+	
+	/*
+	 Called by the queue before a command is undone, while it still knows what it did.
+	 Nothing goes to the writer until undone() says the undo went through.
+	 */
+	void undoing(ReversibleCommand command)
+	{
+		if(begin(true))
+			write(command, true);
+	}
+	
+	void undone()
+	{
+		end();
+	}
+	
+	/*
+	 Writes which model of the scene a record is about. A command still in the history can refer
+	 to a model that has since left the scene, and can't be journaled then.
+	 */
+	static void writeModel(DataOutput out, Scene scene, Model model) throws IOException
+	{
+		int index = scene.indexOf(model);
+		
+		if(index < 0)
+			throw new IOException("Model is not part of the scene");
+		
+		out.writeInt(index);
+	}
+	
+	static Model readModel(DataInput in, Scene scene) throws IOException
+	{
+		int index = in.readInt();
+		
+		if(index < 0 || index >= scene.size())
+			throw new IOException("No model " + index + " in the scene");
+		
+		return scene.getModels().get(index);
+	}
+	
+	/*
+	 Starts a record in the record buffer, unless the journal has stopped.
+	 */
+	private boolean begin(boolean undo)
+	{
+		record.reset();
+		
+		if(closed || failed)
+			return false;
+		
+		try
+		{
+			recordOut.writeInt(0);
+			recordOut.writeByte(undo ? FLAG_UNDO : 0);
+		} catch (IOException e)
+		{
+			/*Writes to a byte array don't fail.*/
+		}
+		
+		return true;
+	}
+	
+	/*
+	 Has the command write itself after the record's header, and passes the record on unless it
+	 needs to wait for an undo to go through first. A command that can't be journaled is caught
+	 by a snapshot instead, once it has run.
+	 */
+	private void write(ReversibleCommand command, boolean undo)
+	{
+		boolean journaled;
+		
+		try
+		{
+			journaled = command.write(recordOut, modeler.getScene(), undo);
+		} catch (IOException e)
+		{
+			journaled = false;
+		}
+		
+		unjournaled = !journaled;
+		
+		if(!undo)
+			end();
+	}
+	
+	/*
+	 Finishes the record in the buffer and hands it to the writer. A record the command left
+	 empty changed nothing and is dropped.
+	 */
+	private void end()
+	{
+		if(unjournaled)
+		{
+			record.reset();
+			unjournaled = false;
+			
+			snapshot();
+			
+			return;
+		}
+		
+		if(record.size() <= 5)
+		{
+			record.reset();
+			
+			return;
+		}
+		
+		crc.reset();
+		
+		byte[] bytes = record.toByteArray();
+		
+		crc.update(bytes, 4, bytes.length-4);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(bytes.length+4);
+		
+		buffer.put(bytes);
+		buffer.putInt(0, bytes.length-4);
+		buffer.putInt((int)crc.getValue());
+		
+		record.reset();
+		
+		queue.add(buffer.array());
+		
+		journalBytes += buffer.capacity();
+		
+		if(journalBytes > Math.max(MIN_COMPACT_BYTES, snapshotBytes))
+			snapshot();
+	}
+	
+	/*
+	 Reads back the snapshot and replays the journal over it. Returns false if they don't go
+	 together, or there was no journal, in which case the journal is emptied.
+	 */
+	private boolean recover() throws IOException
+	{
+		JournalEvent event = new JournalEvent();
+		event.begin();
+		
+		boolean matched = true;
+		
+		if(snapshotFile.exists())
+		{
+			try
+			{
+				SceneSnapshot snapshot = SceneSnapshot.read(snapshotFile);
+				
+				generation = snapshot.getGeneration();
+				snapshotBytes = snapshot.getEstimatedSize();
+				
+				modeler.setScene(snapshot.toScene());
+				
+				event.vertices = snapshot.getVertexCount();
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+				
+				report("Couldn't restore the last snapshot: " + e.getMessage(), JOptionPane.ERROR_MESSAGE);
+				
+				matched = false;
+			}
+		}
+		
+		channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		long end = matched ? replay(event) : -1;
+		
+		if(end < 0)
+		{
+			channel.truncate(0);
+			writeHeader(generation);
+			
+			end = HEADER_SIZE;
+			matched = false;
+		}
+		else
+		{
+			/*Drop whatever is past the last good record, so new records follow straight on.*/
+			channel.truncate(end);
+		}
+		
+		channel.position(end);
+		
+		journalBytes = end-HEADER_SIZE;
+		
+		if(event.shouldCommit())
+		{
+			event.operation = "Recover";
+			event.bytes = end;
+			
+			event.commit();
+		}
+		
+		return matched;
+	}
+	
+	/*
+	 Replays the records in the journal, stopping at the first that is cut short, fails its
+	 check or doesn't fit the scene. Returns where the good records end, or -1 if the journal
+	 has no header or belongs to another snapshot.
+	 */
+	private long replay(JournalEvent event) throws IOException
+	{
+		long size = channel.size();
+		
+		if(size < HEADER_SIZE)
+			return -1;
+		
+		channel.position(0);
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+		
+		if(in.readInt() != MAGIC || in.readLong() != generation)
+			return -1;
+		
+		long position = HEADER_SIZE;
+		
+		try
+		{
+			while(position+8 <= size)
+			{
+				int length = in.readInt();
+				
+				if(length < 2 || length > size-position-8)
+					break;
+				
+				byte[] bytes = new byte[length];
+				
+				in.readFully(bytes);
+				
+				crc.reset();
+				crc.update(bytes);
+				
+				if(in.readInt() != (int)crc.getValue())
+					break;
+				
+				apply(bytes);
+				
+				position += 8+length;
+				
+				event.records++;
+			}
+		} catch (EOFException e)
+		{
+			/*Cut short while the record was being read.*/
+		} catch (IOException | RuntimeException e)
+		{
+			e.printStackTrace();
+			
+			report("Journal replay stopped after " + event.records + " records: " + e.getMessage()
+					+ "\nThe " + (size-position) + " bytes after them were dropped.", JOptionPane.ERROR_MESSAGE);
+			
+			return position;
+		}
+		
+		/*A record cut short by a crash; everything before it was recovered.*/
+		if(position < size)
+			report("Dropped " + (size-position) + " bytes at the end of the journal, left there by a crash.", JOptionPane.WARNING_MESSAGE);
+		
+		return position;
+	}
+	
+	private void apply(byte[] bytes) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		
+		boolean undo = (in.readByte() & FLAG_UNDO) != 0;
+		
+		ReversibleCommand command;
+		
+		switch(in.readByte())
+		{
+		case CREATE_VERTEX:
+			command = CreateVertexCommand.read(in, modeler);
+			break;
+		
+		case DRAG:
+			command = DragCommand.read(in, modeler, undo);
+			break;
+		
+		case ADD_MODEL:
+			modeler.getScene().add(new Model());
+			return;
+		
+		case SIMPLIFY:
+			command = SimplifyCommand.read(in, modeler);
+			break;
+		
+		default:
+			throw new IOException("Unknown record type");
+		}
+		
+		if(undo)
+			command.undo();
+		else
+			command.execute();
+	}
+	
+	private void writeHeader(long generation) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		
+		header.putInt(MAGIC);
+		header.putLong(generation);
+		header.flip();
+		
+		channel.position(0);
+		
+		while(header.hasRemaining())
+			channel.write(header);
+		
+		channel.force(false);
+	}
+	
+	private void writeLoop()
+	{
+		List<Object> batch = new ArrayList<Object>();
+		
+		ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+		
+		try
+		{
+			while(true)
+			{
+				batch.add(queue.take());
+				queue.drainTo(batch);
+				
+				/*A snapshot covers every record before it, and any snapshot before that.*/
+				int start = 0;
+				
+				for(int i = 0; i < batch.size(); i++)
+				{
+					if(batch.get(i) instanceof SceneSnapshot)
+						start = i;
+				}
+				
+				int records = 0;
+				
+				for(int i = start; i < batch.size(); i++)
+				{
+					Object item = batch.get(i);
+					
+					if(item instanceof SceneSnapshot)
+					{
+						compact((SceneSnapshot)item);
+					}
+					else if(item instanceof byte[])
+					{
+						pending.write((byte[])item);
+						records++;
+					}
+				}
+				
+				flush(pending, records);
+				
+				if(batch.contains(CLOSE))
+				{
+					channel.close();
+					return;
+				}
+				
+				batch.clear();
+			}
+		} catch (IOException e)
+		{
+			failed = true;
+			
+			e.printStackTrace();
+			
+			report("Command journal stopped: " + e.getMessage() + "\nEdits from now on won't be recovered after a crash.", JOptionPane.ERROR_MESSAGE);
+		} catch (InterruptedException e)
+		{
+			failed = true;
+		}
+	}
+	
+	/*
+	 Writes out the records of a batch and forces them to the device together.
+	 */
+	private void flush(ByteArrayOutputStream pending, int records) throws IOException
+	{
+		if(pending.size() == 0)
+			return;
+		
+		JournalEvent event = new JournalEvent();
+		event.begin();
+		
+		ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+		
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		
+		channel.force(false);
+		
+		if(event.shouldCommit())
+		{
+			event.operation = "Write";
+			event.records = records;
+			event.bytes = pending.size();
+			
+			event.commit();
+		}
+		
+		pending.reset();
+	}
+	
+	/*
+	 Puts a snapshot in place of the last one and starts the journal over from it.
+	 */
+	private void compact(SceneSnapshot snapshot) throws IOException
+	{
+		JournalEvent event = new JournalEvent();
+		event.begin();
+		
+		snapshot.write(snapshotTemp);
+		
+		Files.move(snapshotTemp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		syncDirectory();
+		
+		/*Until the new header is in, the journal belongs to no snapshot and is passed over.*/
+		channel.truncate(0);
+		
+		writeHeader(snapshot.getGeneration());
+		
+		if(event.shouldCommit())
+		{
+			event.operation = "Snapshot";
+			event.bytes = snapshotFile.length();
+			event.vertices = snapshot.getVertexCount();
+			
+			event.commit();
+		}
+	}
+	
+	/*
+	 Makes the rename of the snapshot itself durable. Not every platform can open a directory.
+	 */
+	private void syncDirectory()
+	{
+		try(FileChannel directory = FileChannel.open(snapshotFile.getParentFile().toPath(), StandardOpenOption.READ))
+		{
+			directory.force(true);
+		} catch (IOException e)
+		{
+		}
+	}
+}
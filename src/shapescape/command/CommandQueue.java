@@ -1,17 +1,51 @@
 package shapescape.command;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 
+import shapescape.profiling.CommandEvent;
+
+/*
+ Pending commands wait in a FIFO queue. Once executed they move into a fixed-capacity ring
+ buffer of history. The first undoCount entries after head can be undone and the rest can be redone.
+ When the history is over its entry or memory budget, the oldest entries are dropped.
+ */
 public class CommandQueue
 {
-	private List<ReversibleCommand> commands;
-	private List<ReversibleCommand> commandHistory;
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	public static final long DEFAULT_MAX_BYTES = 64L*1024*1024;
+	
+	private Deque<ReversibleCommand> commands;
+	
+	private ReversibleCommand[] history;
+	private long[] historySizes;
+	
+	private int head;
+	private int count;
+	private int undoCount;
+	
+	private long historyBytes;
+	private long maxBytes;
+	
+	private CommandJournal journal;
 	
 	public CommandQueue()
 	{
-		commands = new ArrayList<ReversibleCommand>();
-		commandHistory = new ArrayList<ReversibleCommand>();
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+	}
+	
+	public CommandQueue(int maxEntries, long maxBytes)
+	{
+		if(maxEntries < 1)
+			throw new IllegalArgumentException("History must hold at least one entry");
+		
+		commands = new ArrayDeque<ReversibleCommand>();
+		
+		history = new ReversibleCommand[maxEntries];
+		historySizes = new long[maxEntries];
+		
+		this.maxBytes = maxBytes;
 	}
 	
 	public void addCommand(ReversibleCommand command)
@@ -21,34 +55,233 @@ public class CommandQueue
 	
 	public void executeCommands()
 	{
-		for(ReversibleCommand command : commands)
-		{
-			command.execute();
-			
-			commandHistory.add(command);
-			commands.remove(command);
-		}
+		while(!commands.isEmpty())
+			executeNextCommand();
 	}
 	
 	public void executeNextCommand()
 	{
-		if(!commands.isEmpty())
+		ReversibleCommand c = commands.poll();
+		
+		if(c != null)
 		{
-			ReversibleCommand c = commands.get(0);
+			CommandEvent event = new CommandEvent();
+			event.begin();
 			
 			c.execute();
 			
-			commands.remove(0);
-			commandHistory.add(c);
+			push(c);
+			
+			if(journal != null)
+				journal.executed(c);
+			
+			commit(event, "Execute", c);
 		}
 	}
 	
 	public void undoLastCommand()
 	{
-		if(!commandHistory.isEmpty())
+		if(undoCount > 0)
 		{
-			commandHistory.get(commandHistory.size()-1).undo();
-			commandHistory.remove(commandHistory.size()-1);
+			CommandEvent event = new CommandEvent();
+			event.begin();
+			
+			undoCount--;
+			
+			ReversibleCommand c = history[index(undoCount)];
+			
+			if(journal != null)
+				journal.undoing(c);
+			
+			c.undo();
+			
+			if(journal != null)
+				journal.undone();
+			
+			commit(event, "Undo", c);
 		}
 	}
+	
+	public void redoLastCommand()
+	{
+		if(undoCount < count)
+		{
+			CommandEvent event = new CommandEvent();
+			event.begin();
+			
+			ReversibleCommand c = history[index(undoCount)];
+			
+			c.redo();
+			
+			undoCount++;
+			
+			if(journal != null)
+				journal.executed(c);
+			
+			commit(event, "Redo", c);
+		}
+	}
+	
+	private void commit(CommandEvent event, String action, ReversibleCommand c)
+	{
+		if(event.shouldCommit())
+		{
+			event.action = action;
+			event.command = c.getClass().getSimpleName();
+			event.estimatedSize = c.getEstimatedSize();
+			event.historySize = count;
+			
+			event.commit();
+		}
+	}
+	
+	/*
+	 Records every command executed, undone or redone from now on in journal, or stops recording
+	 if it is null.
+	 */
+	public void setJournal(CommandJournal journal)
+	{
+		this.journal = journal;
+	}
+	
+	public CommandJournal getJournal()
+	{
+		return journal;
+	}
+	
+	public boolean canUndo()
+	{
+		return undoCount > 0;
+	}
+	
+	public boolean canRedo()
+	{
+		return undoCount < count;
+	}
+	
+	public int getHistorySize()
+	{
+		return count;
+	}
+	
+	/*
+	 How many of the history entries can currently be undone.
+	 */
+	public int getUndoCount()
+	{
+		return undoCount;
+	}
+	
+	public long getHistoryBytes()
+	{
+		return historyBytes;
+	}
+	
+	public void clearHistory()
+	{
+		Arrays.fill(history, null);
+		
+		head = count = undoCount = 0;
+		historyBytes = 0;
+	}
+	
+	public void setMaxBytes(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+		
+		trim();
+	}
+	
+	public void setMaxEntries(int maxEntries)
+	{
+		if(maxEntries < 1)
+			throw new IllegalArgumentException("History must hold at least one entry");
+		
+		/*Keep the newest entries that fit and lay them out from the start of the new buffer.*/
+		while(count > maxEntries)
+			dropOne();
+		
+		ReversibleCommand[] newHistory = new ReversibleCommand[maxEntries];
+		long[] newSizes = new long[maxEntries];
+		
+		for(int i = 0; i < count; i++)
+		{
+			newHistory[i] = history[index(i)];
+			newSizes[i] = historySizes[index(i)];
+		}
+		
+		history = newHistory;
+		historySizes = newSizes;
+		head = 0;
+	}
+	
+	private void push(ReversibleCommand c)
+	{
+		/*A new command replaces anything that was waiting to be redone.*/
+		while(count > undoCount)
+		{
+			count--;
+			
+			int i = index(count);
+			
+			historyBytes -= historySizes[i];
+			history[i] = null;
+		}
+		
+		if(count == history.length)
+			evictOldest();
+		
+		int i = index(count);
+		
+		history[i] = c;
+		historySizes[i] = c.getEstimatedSize();
+		historyBytes += historySizes[i];
+		
+		count++;
+		undoCount++;
+		
+		trim();
+	}
+	
+	private void trim()
+	{
+		while(historyBytes > maxBytes && count > 1)
+			dropOne();
+	}
+	
+	/*
+	 Drops the oldest undoable entry, or the furthest redoable one if nothing can be undone.
+	 */
+	private void dropOne()
+	{
+		if(undoCount > 0)
+		{
+			evictOldest();
+		}
+		else
+		{
+			count--;
+			
+			int i = index(count);
+			
+			historyBytes -= historySizes[i];
+			history[i] = null;
+		}
+	}
+	
+	private void evictOldest()
+	{
+		historyBytes -= historySizes[head];
+		history[head] = null;
+		
+		head = (head+1) % history.length;
+		
+		count--;
+		undoCount--;
+	}
+	
+	private int index(int offset)
+	{
+		return (head+offset) % history.length;
+	}
 }
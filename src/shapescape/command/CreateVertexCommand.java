@@ -1,10 +1,13 @@
 package shapescape.command;
 
-import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
+import shapescape.Model;
+import shapescape.Scene;
 import shapescape.ShapeScape;
-import shapescape.Vertex;
 
 public class CreateVertexCommand implements ReversibleCommand
 {
@@ -12,34 +15,78 @@ public class CreateVertexCommand implements ReversibleCommand
 	
 	private Point2D point;
 	
-	private Vertex vertex;
+	private Model model;
+	
+	private int id = -1;
 	
 	public CreateVertexCommand(ShapeScape modeler, Point2D point)
 	{
 		this.modeler = modeler;
 		
 		this.point = point;
+	}
+	
+	/*
+	 Reads a record written by write() back into a command that creates, or removes, the same
+	 vertex under the same ID.
+	 */
+	static CreateVertexCommand read(DataInput in, ShapeScape modeler) throws IOException
+	{
+		Model model = CommandJournal.readModel(in, modeler.getScene());
+		
+		int id = in.readInt();
+		
+		CreateVertexCommand command = new CreateVertexCommand(modeler, new Point2D.Double(in.readDouble(), in.readDouble()));
 		
-		this.vertex = new Vertex(point);
+		command.model = model;
+		command.id = id;
+		
+		return command;
 	}
-
+	
 	@Override
 	public void execute()
 	{
-		if(!modeler.getVertices().contains(vertex))
+		if(model == null)
 		{
-			modeler.getModel().addVertex(vertex);
+			model = modeler.getModel();
+			id = model.addVertex(point.getX(), point.getY()).getId();
+			
+			modeler.repaint();
+		}
+		else if(model.getSlot(id) < 0)
+		{
+			/*Executing again after an undo restores the vertex under its original ID.*/
+			model.addVertex(id, point.getX(), point.getY());
 			
 			modeler.repaint();
 		}
 	}
-
+	
 	@Override
-	public void undo() 
+	public void undo()
 	{
-		modeler.getVertices().remove(vertex);
+		if(model != null)
+			model.removeVertexById(id);
 		
 		modeler.repaint();
 	}
+	
+	@Override
+	public boolean write(DataOutput out, Scene scene, boolean undo) throws IOException
+	{
+		if(model == null)
+			return true;
+		
+		out.writeByte(CommandJournal.CREATE_VERTEX);
+		
+		CommandJournal.writeModel(out, scene, model);
+		
+		out.writeInt(id);
+		out.writeDouble(point.getX());
+		out.writeDouble(point.getY());
+		
+		return true;
+	}
 
 }
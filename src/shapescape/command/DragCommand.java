@@ -1,76 +1,282 @@
 package shapescape.command;
 
-import java.awt.Point;
-import java.util.List;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 
+import shapescape.IntList;
+import shapescape.Model;
+import shapescape.Scene;
 import shapescape.ShapeScape;
-import shapescape.Vertex;
 
+/*
+ Moves a set of vertices, possibly spread over several models, by one offset. While the user
+ drags, setOffset only records where the vertices should end up; apply() moves them there,
+ and is called at most once per frame. It only moves the coordinates, and finish() brings the
+ models' grids up to date once the drag ends. The history entry is just the vertex ID ranges
+ and the total offset.
+
+ The offset is in scene space, and is mapped into each model through its transform, so every
+ vertex follows the cursor however its model is placed.
+ */
 public class DragCommand implements ReversibleCommand
 {
 	private ShapeScape modeler;
-	private List<Vertex> vertices;
 	
-	private Point startPoint;
-	private Point endPoint;
+	private Model[] models;
+	
+	/*Per model, pairs of [first ID, last ID + 1].*/
+	private int[][] idRanges;
+	
+	/*Per model, the inverse of its transform, or null if it has none.*/
+	private AffineTransform[] toModel;
+	
+	private Point2D.Double delta = new Point2D.Double();
+	
+	private double offsetX = 0;
+	private double offsetY = 0;
 	
-	private int totalDragX = 0;
-	private int totalDragY = 0;
+	private double appliedX = 0;
+	private double appliedY = 0;
 	
-	public DragCommand(ShapeScape modeler, List<Vertex> vertices, Point startPoint, Point endPoint)
+	/*
+	 Drags vertices of the active model.
+	 */
+	public DragCommand(ShapeScape modeler, int[] ids)
+	{
+		this(modeler, new Model[] {modeler.getModel()}, new int[][] {ids});
+	}
+	
+	/*
+	 Drags, for each model, the vertices with the IDs at the same index of ids.
+	 */
+	public DragCommand(ShapeScape modeler, Model[] models, int[][] ids)
+	{
+		this(modeler, toRanges(ids), models);
+	}
+	
+	private DragCommand(ShapeScape modeler, int[][] idRanges, Model[] models)
 	{
 		this.modeler = modeler;
-		this.vertices = vertices;
+		this.models = models.clone();
+		this.idRanges = idRanges;
 		
-		this.startPoint = startPoint;
-		this.endPoint = endPoint;
+		toModel = new AffineTransform[models.length];
+		
+		for(int i = 0; i < models.length; i++)
+		{
+			try
+			{
+				toModel[i] = models[i].getTransform().createInverse();
+			} catch (NoninvertibleTransformException e)
+			{
+				/*A collapsed model can't follow the cursor, so it stays where it is.*/
+			}
+		}
 	}
 	
-	public void setStartPoint(Point startPoint)
+	public void setOffset(double offsetX, double offsetY)
 	{
-		this.startPoint = startPoint;
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
 	}
 	
-	public void setEndPoint(Point endPoint)
+	public double getOffsetX()
 	{
-		this.endPoint = endPoint;
+		return offsetX;
 	}
 	
-	public Point getStartPoint()
+	public double getOffsetY()
 	{
-		return startPoint;
+		return offsetY;
 	}
 	
-	public Point getEndPoint()
+	/*
+	 Brings the vertices up to the latest offset, without indexing them in their models'
+	 grids. Returns false if they were already there.
+	 */
+	public boolean apply()
 	{
-		return endPoint;
+		double dx = offsetX-appliedX;
+		double dy = offsetY-appliedY;
+		
+		if(dx == 0 && dy == 0)
+			return false;
+		
+		offset(dx, dy, false);
+		
+		appliedX = offsetX;
+		appliedY = offsetY;
+		
+		return true;
 	}
-
-	@Override
-	public void execute() 
+	
+	/*
+	 Brings the vertices up to the latest offset and indexes them again. Returns false if they
+	 were already there.
+	 */
+	public boolean finish()
 	{
-		int xOffset = (int)(endPoint.getX() - startPoint.getX());
-		int yOffset = (int)(endPoint.getY() - startPoint.getY());
-		
-		totalDragX += xOffset;
-		totalDragY += yOffset;
+		boolean moved = apply();
 		
-		for(Vertex v : vertices)
-			v.setLocation(v.getX()+xOffset, v.getY()+yOffset);
+		for(Model model : models)
+			model.index();
 		
-		modeler.repaint();
+		return moved;
 	}
-
+	
+	@Override
+	public void execute()
+	{
+		if(finish())
+			modeler.repaint();
+	}
+	
 	@Override
 	public void undo()
 	{
-		//int xOffset = (int)(startPoint.getX() - endPoint.getX());
-		//int yOffset = (int)(startPoint.getY() - endPoint.getY());
+		offset(-appliedX, -appliedY, true);
 		
-		for(Vertex v : vertices)
-			v.setLocation(v.getX()-totalDragX, v.getY()-totalDragY);
+		appliedX = appliedY = 0;
 		
 		modeler.repaint();
 	}
+	
+	@Override
+	public long getEstimatedSize()
+	{
+		long size = 64;
+		
+		for(int[] ranges : idRanges)
+			size += 48 + 4L*ranges.length;
+		
+		return size;
+	}
+	
+	/*
+	 Either way the record holds the ID ranges and the total offset, which an executed drag moved
+	 the vertices by and an undone one is about to move them back from.
+	 */
+	@Override
+	public boolean write(DataOutput out, Scene scene, boolean undo) throws IOException
+	{
+		out.writeByte(CommandJournal.DRAG);
+		
+		out.writeInt(models.length);
+		
+		for(int i = 0; i < models.length; i++)
+		{
+			CommandJournal.writeModel(out, scene, models[i]);
+			
+			out.writeInt(idRanges[i].length);
+			
+			for(int id : idRanges[i])
+				out.writeInt(id);
+		}
+		
+		out.writeDouble(appliedX);
+		out.writeDouble(appliedY);
+		
+		return true;
+	}
+	
+	/*
+	 Reads a record written by write(). An executed drag comes back with the vertices already
+	 moved by its offset, and an undone one ready to move them back.
+	 */
+	static DragCommand read(DataInput in, ShapeScape modeler, boolean undo) throws IOException
+	{
+		Scene scene = modeler.getScene();
+		
+		int count = in.readInt();
+		
+		if(count < 0 || count > scene.size())
+			throw new IOException("Corrupt record");
+		
+		Model[] models = new Model[count];
+		int[][] idRanges = new int[count][];
+		
+		for(int i = 0; i < count; i++)
+		{
+			models[i] = CommandJournal.readModel(in, scene);
+			
+			int length = in.readInt();
+			
+			if(length < 0 || length % 2 != 0)
+				throw new IOException("Corrupt record");
+			
+			idRanges[i] = new int[length];
+			
+			for(int j = 0; j < length; j++)
+				idRanges[i][j] = in.readInt();
+		}
+		
+		DragCommand command = new DragCommand(modeler, idRanges, models);
+		
+		command.setOffset(in.readDouble(), in.readDouble());
+		
+		if(undo)
+		{
+			command.appliedX = command.offsetX;
+			command.appliedY = command.offsetY;
+		}
+		else
+			command.finish();
+		
+		return command;
+	}
+	
+	private void offset(double dx, double dy, boolean index)
+	{
+		for(int i = 0; i < models.length; i++)
+		{
+			if(toModel[i] == null)
+				continue;
+			
+			delta.setLocation(dx, dy);
+			toModel[i].deltaTransform(delta, delta);
+			
+			models[i].offsetVertices(idRanges[i], delta.getX(), delta.getY(), index);
+		}
+	}
+	
+	private static int[][] toRanges(int[][] ids)
+	{
+		int[][] ranges = new int[ids.length][];
+		
+		for(int i = 0; i < ids.length; i++)
+			ranges[i] = toRanges(ids[i]);
+		
+		return ranges;
+	}
+	
+	private static int[] toRanges(int[] ids)
+	{
+		int[] sorted = ids.clone();
+		
+		Arrays.sort(sorted);
+		
+		IntList ranges = new IntList();
+		
+		for(int i = 0; i < sorted.length; i++)
+		{
+			if(i == 0 || sorted[i] != sorted[i-1]+1)
+			{
+				if(i > 0)
+					ranges.add(sorted[i-1]+1);
+				
+				ranges.add(sorted[i]);
+			}
+		}
+		
+		if(sorted.length > 0)
+			ranges.add(sorted[sorted.length-1]+1);
+		
+		return ranges.toArray();
+	}
 
 }
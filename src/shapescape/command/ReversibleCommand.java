@@ -1,6 +1,38 @@
 package shapescape.command;
 
+import java.io.DataOutput;
+import java.io.IOException;
+
+import shapescape.Scene;
+
 public interface ReversibleCommand extends Command
 {
 	public void undo();
+	
+	/*
+	 Re-applies the command after it has been undone.
+	 */
+	public default void redo()
+	{
+		execute();
+	}
+	
+	/*
+	 Rough number of bytes the command keeps alive while it sits in the history.
+	 */
+	public default long getEstimatedSize()
+	{
+		return 64;
+	}
+	
+	/*
+	 Writes a journal record of what executing the command did to the scene or, if undo is set,
+	 of what undoing it is about to do, starting with its CommandJournal record type. Writes
+	 nothing if it changed nothing. Returns false if the command can't be journaled, in which case
+	 the journal snapshots the whole scene instead.
+	 */
+	public default boolean write(DataOutput out, Scene scene, boolean undo) throws IOException
+	{
+		return false;
+	}
 }
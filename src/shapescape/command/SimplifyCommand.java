@@ -0,0 +1,172 @@
+package shapescape.command;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+import shapescape.Model;
+import shapescape.ProgressListener;
+import shapescape.Scene;
+import shapescape.ShapeScape;
+import shapescape.Simplifier;
+
+/*
+ Drops every vertex of a model that one of the Simplifier methods ranks at or below a tolerance.
+ The vertices that are kept keep their IDs and selection. The model's contents before and after
+ are swapped in and out whole, so undoing and redoing take no time, but the history holds on to
+ whichever of them isn't showing.
+ */
+public class SimplifyCommand implements ReversibleCommand
+{
+	private ShapeScape modeler;
+	
+	private Model model;
+	
+	private int method;
+	private double tolerance;
+	
+	/*The contents the model doesn't have right now, or null before the first execute().*/
+	private Model other;
+	
+	private boolean done;
+	
+	/*
+	 Simplifies model when executed. If simplified is set, it must be simplify()'s result for the
+	 model as it will be then, and is swapped in instead of working it out again.
+	 */
+	public SimplifyCommand(ShapeScape modeler, Model model, int method, double tolerance, Model simplified)
+	{
+		this.modeler = modeler;
+		this.model = model;
+		
+		this.method = method;
+		this.tolerance = tolerance;
+		
+		this.other = simplified;
+	}
+	
+	/*
+	 Reads a record written by write() back into a command that simplifies the same model again.
+	 Both methods only depend on the vertices, so it comes out the same as the first time.
+	 */
+	static SimplifyCommand read(DataInput in, ShapeScape modeler) throws IOException
+	{
+		Model model = CommandJournal.readModel(in, modeler.getScene());
+		
+		int method = in.readByte();
+		double tolerance = in.readDouble();
+		
+		if(method != Simplifier.DOUGLAS_PEUCKER && method != Simplifier.VISVALINGAM_WHYATT)
+			throw new IOException("Corrupt record");
+		
+		return new SimplifyCommand(modeler, model, method, tolerance, null);
+	}
+	
+	/*
+	 Builds the simplified version of model into a new model without touching it. The model must
+	 not change until this returns. Vertices removed are never given out again as IDs.
+	 */
+	public static Model simplify(Model model, int method, double tolerance, ProgressListener listener)
+	{
+		int size = model.size();
+		
+		double[] xs = model.copyXs();
+		double[] ys = model.copyYs();
+		
+		double[] rank = Simplifier.rank(method, xs, ys, size, listener);
+		
+		int[] ids = new int[size];
+		BitSet selected = new BitSet();
+		
+		int kept = 0;
+		
+		for(int i = 0; i < size; i++)
+		{
+			if(rank[i] > tolerance)
+			{
+				xs[kept] = xs[i];
+				ys[kept] = ys[i];
+				ids[kept] = model.getId(i);
+				
+				if(model.isSelected(i))
+					selected.set(kept);
+				
+				kept++;
+			}
+		}
+		
+		Model result = new Model();
+		
+		result.addVertices(ids, xs, ys, kept, selected);
+		result.reserveIds(model.getNextId());
+		
+		result.getTransform().setTransform(model.getTransform());
+		
+		return result;
+	}
+	
+	@Override
+	public void execute()
+	{
+		if(done)
+			return;
+		
+		if(other == null)
+			other = simplify(model, method, tolerance, null);
+		
+		swap();
+		
+		done = true;
+		
+		modeler.repaint();
+	}
+	
+	@Override
+	public void undo()
+	{
+		if(done)
+		{
+			swap();
+			
+			done = false;
+		}
+		
+		modeler.repaint();
+	}
+	
+	private void swap()
+	{
+		Model holder = new Model();
+		
+		holder.adopt(model);
+		model.adopt(other);
+		
+		other = holder;
+	}
+	
+	@Override
+	public long getEstimatedSize()
+	{
+		return 64 + (other == null ? 0 : 40L*other.size());
+	}
+	
+	/*
+	 Undoing would have to write out every vertex removed, so it is left to a snapshot.
+	 */
+	@Override
+	public boolean write(DataOutput out, Scene scene, boolean undo) throws IOException
+	{
+		if(undo)
+			return false;
+		
+		out.writeByte(CommandJournal.SIMPLIFY);
+		
+		CommandJournal.writeModel(out, scene, model);
+		
+		out.writeByte(method);
+		out.writeDouble(tolerance);
+		
+		return true;
+	}
+}
@@ -20,9 +20,16 @@ public class KeyboardListener implements KeyListener
 		
 		if(e.getExtendedKeyCode() == KeyEvent.VK_Z)
 		{
-			if(e.isControlDown())
+			if(e.isControlDown() && e.isShiftDown())
+				modeler.redoLastCommand();
+			else if(e.isControlDown())
 				modeler.undoLastCommand();
 		}
+		else if(e.getExtendedKeyCode() == KeyEvent.VK_Y)
+		{
+			if(e.isControlDown())
+				modeler.redoLastCommand();
+		}
 	}
 
 	@Override
@@ -0,0 +1,193 @@
+package shapescape.operation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import shapescape.ChunkListener;
+import shapescape.CvgFile;
+import shapescape.Model;
+import shapescape.Scene;
+import shapescape.ShapeScape;
+
+/*
+ Reads the models of a .cvg file, either in place of the whole scene or added to it, and shows
+ them while they fill up. Each model gets the transform it was saved with, and the one that was
+ active when the file was saved is made active again.
+
+ The worker reads the file in chunks and builds the models, grids and all, on the side. Each
+ chunk is also handed to the event thread and appended to its model on show without indexing it,
+ which is cheap, and the models are repainted at most every REFRESH_INTERVAL milliseconds. Once
+ the file is read the models on show adopt the finished ones. Cancelling the load, or a failure
+ partway, puts back the scene as it was.
+
+ Text files hold coordinates relative to their minimum, and are moved out by offset. Binary
+ files hold them as they were saved and are loaded where they were.
+ */
+public class LoadOperation extends ModelOperation<CvgFile> implements ChunkListener
+{
+	/*Vertices per chunk, few enough that the first shows up almost at once.*/
+	private static final int CHUNK_SIZE = 1 << 16;
+	
+	private static final long REFRESH_INTERVAL = 100;
+	
+	private File file;
+	
+	private double offset;
+	
+	private boolean addToScene;
+	
+	/*The models on show, and the ones the worker builds, in the file's order.*/
+	private List<Model> loaded = new ArrayList<Model>();
+	
+	private List<Model> results = new ArrayList<Model>();
+	
+	/*The index of the model saved as active.*/
+	private volatile int active;
+	
+	private Scene previousScene;
+	
+	private long lastRefresh;
+	
+	public LoadOperation(ShapeScape modeler, File file, double offset)
+	{
+		this(modeler, file, offset, false);
+	}
+	
+	public LoadOperation(ShapeScape modeler, File file, double offset, boolean addToScene)
+	{
+		super(modeler, (addToScene ? "Importing " : "Opening ") + file.getName());
+		
+		this.file = file;
+		this.offset = offset;
+		this.addToScene = addToScene;
+	}
+	
+	/*
+	 Puts an empty model on show before the first chunk is read.
+	 */
+	@Override
+	public void start()
+	{
+		Model first = new Model();
+		previousScene = modeler.getScene();
+		
+		if(addToScene)
+			modeler.addModel(first);
+		else
+			modeler.loadScene(first);
+		
+		loaded.add(first);
+		
+		super.start();
+	}
+	
+	@Override
+	protected void work() throws Exception
+	{
+		CvgFile.stream(file, CHUNK_SIZE, this, this);
+		
+		/*Compute the bounds here rather than on the first paint.*/
+		for(Model result : results)
+			result.getBounds();
+	}
+	
+	@Override
+	public void chunk(CvgFile chunk)
+	{
+		/*Hand the chunk over for showing first, indexing it takes much longer.*/
+		publish(chunk);
+		
+		if(chunk.getModel() == results.size())
+		{
+			Model result = new Model();
+			result.getTransform().setTransform(chunk.getTransform());
+			
+			results.add(result);
+			
+			if(chunk.isActive())
+				active = chunk.getModel();
+		}
+		
+		double shift = getOffset(chunk);
+		
+		results.get(chunk.getModel()).addVertices(chunk.getXs(), chunk.getYs(), chunk.size(), shift, shift, chunk.getSelected());
+	}
+	
+	@Override
+	protected void process(List<CvgFile> chunks)
+	{
+		/*Once the worker is through, the finished model is about to be adopted or dropped anyway.*/
+		if(isDone())
+			return;
+		
+		for(CvgFile chunk : chunks)
+		{
+			Model model = getLoaded(chunk.getModel());
+			
+			/*The first chunk of a model brings its transform.*/
+			if(model.size() == 0)
+				model.getTransform().setTransform(chunk.getTransform());
+			
+			double shift = getOffset(chunk);
+			
+			model.addVertices(chunk.getXs(), chunk.getYs(), chunk.size(), shift, shift, chunk.getSelected(), false);
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		if(now-lastRefresh >= REFRESH_INTERVAL)
+		{
+			lastRefresh = now;
+			
+			modeler.repaint();
+		}
+	}
+	
+	/*
+	 Returns the model on show for an index, adding empty models on top until there is one.
+	 */
+	private Model getLoaded(int index)
+	{
+		while(loaded.size() <= index)
+		{
+			Model model = new Model();
+			
+			modeler.getScene().add(model);
+			loaded.add(model);
+		}
+		
+		return loaded.get(index);
+	}
+	
+	private double getOffset(CvgFile chunk)
+	{
+		return chunk.getVersion() == 1 ? offset : 0;
+	}
+	
+	@Override
+	protected void publishResult()
+	{
+		for(int i = 0; i < results.size(); i++)
+			getLoaded(i).adopt(results.get(i));
+		
+		modeler.getScene().setActive(loaded.get(active));
+		
+		modeler.checkpoint();
+		modeler.repaint();
+	}
+	
+	@Override
+	protected void abandon()
+	{
+		if(addToScene)
+		{
+			for(Model model : loaded)
+				modeler.getScene().remove(model);
+			
+			modeler.checkpoint();
+		}
+		else
+			modeler.setScene(previousScene);
+	}
+}
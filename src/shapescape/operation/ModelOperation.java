@@ -0,0 +1,177 @@
+package shapescape.operation;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import shapescape.ProgressListener;
+import shapescape.ShapeScape;
+
+/*
+ Runs a heavy model or file operation on a worker thread.
+
+ work() runs off the event thread and must not change anything ShapeScape is showing.
+ It builds its result on the side and reports progress through getProgressListener().
+ publishResult() then runs on the event thread, where the result can be swapped in in one step.
+ While an operation runs the modeler is marked busy, so edits cannot race with it. A cancelled
+ operation only stops at its next progress report, so the modeler stays busy, and the result is
+ only abandoned, once work() has actually returned.
+
+ Operations that show their result as it is built publish() pieces of type V from work() and
+ take them in on the event thread in process(). Those undo what they showed in abandon().
+ */
+public abstract class ModelOperation<V> extends SwingWorker<Void, V> implements ProgressListener
+{
+	protected ShapeScape modeler;
+	
+	private String title;
+	
+	private ProgressMonitor monitor;
+	
+	private Timer cancelPoll;
+	
+	/*Set by whichever comes first of the worker starting work() and done() finding it never will.*/
+	private AtomicBoolean claimed = new AtomicBoolean();
+	
+	/*Only touched on the event thread.*/
+	private boolean workerStopped;
+	private boolean doneCalled;
+	
+	public ModelOperation(ShapeScape modeler, String title)
+	{
+		this.modeler = modeler;
+		this.title = title;
+	}
+	
+	protected abstract void work() throws Exception;
+	
+	protected abstract void publishResult();
+	
+	/*
+	 Runs on the event thread instead of publishResult() when the operation was cancelled or failed.
+	 */
+	protected void abandon()
+	{
+	}
+	
+	/*
+	 Marks the modeler busy and starts the operation. Must be called on the event thread.
+	 */
+	public void start()
+	{
+		modeler.setBusy(true);
+		
+		monitor = new ProgressMonitor(modeler, title, null, 0, 100);
+		
+		cancelPoll = new Timer(100, new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent e)
+			{
+				if(monitor.isCanceled())
+					cancel(true);
+				else
+					monitor.setProgress(getProgress());
+			}
+		});
+		
+		cancelPoll.start();
+		
+		execute();
+	}
+	
+	@Override
+	public void progress(long done, long total)
+	{
+		if(isCancelled() || Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+		
+		if(total > 0)
+			setProgress((int)Math.min(100, done*100/total));
+	}
+	
+	@Override
+	protected Void doInBackground() throws Exception
+	{
+		if(!claimed.compareAndSet(false, true))
+			return null;
+		
+		try
+		{
+			work();
+		} finally
+		{
+			SwingUtilities.invokeLater(this::workerStopped);
+		}
+		
+		return null;
+	}
+	
+	/*
+	 Called on the event thread as soon as the operation is cancelled or has finished. A cancelled
+	 worker may still be inside work(), so the rest waits until it is out.
+	 */
+	@Override
+	protected void done()
+	{
+		cancelPoll.stop();
+		monitor.close();
+		
+		doneCalled = true;
+		
+		/*Cancelled before the worker got to it, so work() never runs.*/
+		if(claimed.compareAndSet(false, true))
+			workerStopped = true;
+		
+		if(workerStopped)
+			finish();
+	}
+	
+	private void workerStopped()
+	{
+		workerStopped = true;
+		
+		if(doneCalled)
+			finish();
+	}
+	
+	private void finish()
+	{
+		modeler.setBusy(false);
+		
+		try
+		{
+			get();
+			
+			publishResult();
+		} catch (CancellationException e)
+		{
+			abandon();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			
+			abandon();
+			
+			if(!(cause instanceof CancellationException))
+			{
+				cause.printStackTrace();
+				
+				JOptionPane.showMessageDialog(modeler, title + " failed: " + cause.getMessage(), title, JOptionPane.ERROR_MESSAGE);
+			}
+		}
+		
+		modeler.repaint();
+	}
+}
@@ -0,0 +1,53 @@
+package shapescape.operation;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+
+import shapescape.CvgFile;
+import shapescape.Scene;
+import shapescape.ShapeScape;
+
+/*
+ Writes the whole scene to a .cvg file, every model with its transform and selection. The
+ modeler is busy while this runs, so the scene cannot change underneath the writer. The extents
+ and bounds, which the models cache when asked, are taken on the event thread before it starts.
+ */
+public class SaveOperation extends ModelOperation<Void>
+{
+	private File file;
+	
+	private Scene scene;
+	
+	private double[][] extents;
+	private Rectangle2D bounds;
+	
+	public SaveOperation(ShapeScape modeler, File file)
+	{
+		super(modeler, "Saving " + file.getName());
+		
+		this.file = file;
+	}
+	
+	@Override
+	public void start()
+	{
+		scene = modeler.getScene();
+		
+		extents = CvgFile.getExtents(scene);
+		bounds = scene.getBounds();
+		
+		super.start();
+	}
+	
+	@Override
+	protected void work() throws Exception
+	{
+		CvgFile.write(scene, extents, bounds, file, this);
+	}
+	
+	@Override
+	protected void publishResult()
+	{
+		modeler.setSaveFile(file);
+	}
+}
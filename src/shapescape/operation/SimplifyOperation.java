@@ -0,0 +1,40 @@
+package shapescape.operation;
+
+import shapescape.Model;
+import shapescape.ShapeScape;
+import shapescape.Simplifier;
+import shapescape.command.SimplifyCommand;
+
+/*
+ Simplifies the model to a tolerance. The simplified model is built on the side, and swapped in
+ through the command queue when it is finished, so the simplification can be undone.
+ */
+public class SimplifyOperation extends ModelOperation<Void>
+{
+	private int method;
+	private double tolerance;
+	
+	private Model model;
+	private Model result;
+	
+	public SimplifyOperation(ShapeScape modeler, int method, double tolerance)
+	{
+		super(modeler, "Simplifying (" + Simplifier.getName(method) + ")");
+		
+		this.method = method;
+		this.tolerance = tolerance;
+		this.model = modeler.getModel();
+	}
+	
+	@Override
+	protected void work() throws Exception
+	{
+		result = SimplifyCommand.simplify(model, method, tolerance, this);
+	}
+	
+	@Override
+	protected void publishResult()
+	{
+		modeler.simplify(model, method, tolerance, result);
+	}
+}
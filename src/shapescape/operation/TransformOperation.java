@@ -0,0 +1,64 @@
+package shapescape.operation;
+
+import java.awt.geom.AffineTransform;
+
+import shapescape.Model;
+import shapescape.ParallelTransform;
+import shapescape.ShapeScape;
+
+/*
+ Applies an affine transform to every vertex of the model. The work is done on a copy,
+ which the live model adopts in one step when it is finished. Each chunk is spread over the
+ fork/join pool, and its extents are merged as it goes so the bounds never need a rescan.
+ */
+public class TransformOperation extends ModelOperation<Void>
+{
+	private static final int CHUNK = 1 << 20;
+	
+	private AffineTransform transform;
+	
+	private Model model;
+	private Model result;
+	
+	public TransformOperation(ShapeScape modeler, String title, AffineTransform transform)
+	{
+		super(modeler, title);
+		
+		this.transform = new AffineTransform(transform);
+		this.model = modeler.getModel();
+	}
+	
+	public static TransformOperation scale(ShapeScape modeler, double xScale, double yScale)
+	{
+		return new TransformOperation(modeler, "Scaling", AffineTransform.getScaleInstance(xScale, yScale));
+	}
+	
+	@Override
+	protected void work() throws Exception
+	{
+		result = model.copy();
+		
+		int size = result.size();
+		
+		double[] extents = ParallelTransform.emptyExtents();
+		
+		for(int from = 0; from < size; from += CHUNK)
+		{
+			int to = Math.min(size, from+CHUNK);
+			
+			extents = ParallelTransform.mergeExtents(extents, result.transformRange(transform, from, to));
+			
+			progress(to, size);
+		}
+		
+		result.rebuildIndex(extents);
+	}
+	
+	@Override
+	protected void publishResult()
+	{
+		model.adopt(result);
+		
+		modeler.checkpoint();
+	}
+}
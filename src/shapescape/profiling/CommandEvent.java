@@ -0,0 +1,28 @@
+package shapescape.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ A command being executed, undone or redone through the command queue.
+ */
+@Name("shapescape.Command")
+@Label("Command")
+@Category({"ShapeScape", "Editing"})
+public class CommandEvent extends jdk.jfr.Event
+{
+	@Label("Action")
+	public String action;
+	
+	@Label("Command")
+	public String command;
+	
+	@Label("Estimated Size")
+	@DataAmount
+	public long estimatedSize;
+	
+	@Label("History Size")
+	public int historySize;
+}
@@ -0,0 +1,31 @@
+package shapescape.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ A .cvg file being read or written in full.
+ */
+@Name("shapescape.File")
+@Label("File")
+@Category({"ShapeScape", "Files"})
+public class FileEvent extends jdk.jfr.Event
+{
+	@Label("Operation")
+	public String operation;
+	
+	@Label("Path")
+	public String path;
+	
+	@Label("Format Version")
+	public int version;
+	
+	@Label("Size")
+	@DataAmount
+	public long bytes;
+	
+	@Label("Vertices")
+	public int vertices;
+}
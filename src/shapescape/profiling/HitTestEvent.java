@@ -0,0 +1,29 @@
+package shapescape.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ A lookup of the vertices under the cursor or inside the selection rectangle.
+ */
+@Name("shapescape.HitTest")
+@Label("Hit Test")
+@Category({"ShapeScape", "Editing"})
+public class HitTestEvent extends jdk.jfr.Event
+{
+	@Label("Query")
+	public String query;
+	
+	@Label("Models Searched")
+	public int models;
+	
+	@Label("Vertices")
+	public int vertices;
+	
+	@Label("Candidates")
+	public int candidates;
+	
+	@Label("Hits")
+	public int hits;
+}
@@ -0,0 +1,29 @@
+package shapescape.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ The command journal writing a batch of records and forcing them to the device, writing a
+ snapshot of the scene, or replaying both on startup.
+ */
+@Name("shapescape.Journal")
+@Label("Journal")
+@Category({"ShapeScape", "Files"})
+public class JournalEvent extends jdk.jfr.Event
+{
+	@Label("Operation")
+	public String operation;
+	
+	@Label("Records")
+	public int records;
+	
+	@Label("Size")
+	@DataAmount
+	public long bytes;
+	
+	@Label("Vertices")
+	public int vertices;
+}
@@ -0,0 +1,52 @@
+package shapescape.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ One repaint of the modeler. The counts describe the static layer on screen, which is only
+ redrawn when something under it changed.
+ */
+@Name("shapescape.Paint")
+@Label("Paint")
+@Category({"ShapeScape", "Rendering"})
+public class PaintEvent extends jdk.jfr.Event
+{
+	@Label("Width")
+	public int width;
+	
+	@Label("Height")
+	public int height;
+	
+	@Label("Models")
+	public int models;
+	
+	@Label("Models Culled")
+	@Description("Models skipped whole because their bounds missed the view")
+	public int modelsCulled;
+	
+	@Label("Vertices")
+	public int vertices;
+	
+	@Label("Edges Drawn")
+	public int edgesDrawn;
+	
+	@Label("Edges Culled")
+	public int edgesCulled;
+	
+	@Label("Vertices Drawn")
+	public int verticesDrawn;
+	
+	@Label("Vertices Culled")
+	@Description("Vertices outside the view, or all of them when markers are too small to show")
+	public int verticesCulled;
+	
+	@Label("Layer Redrawn")
+	@Description("Whether the grid and model were drawn again rather than reused")
+	public boolean layerRedrawn;
+	
+	@Label("Tiled")
+	public boolean tiled;
+}